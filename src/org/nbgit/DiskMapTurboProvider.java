@@ -42,25 +42,22 @@
 package org.nbgit;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.logging.Level;
 import org.netbeans.modules.turbo.TurboProvider;
 import org.openide.filesystems.FileUtil;
+import org.openide.util.RequestProcessor;
 
 /**
  * Storage of file attributes with shortcut to retrieve all stored values.
@@ -73,67 +70,139 @@ class DiskMapTurboProvider implements TurboProvider {
 
     private static final int STATUS_VALUABLE = StatusInfo.STATUS_MANAGED & ~StatusInfo.STATUS_VERSIONED_UPTODATE;
     private static final String CACHE_DIRECTORY = "gitcache"; // NOI18N
-
-    private File cacheStore;
-    private int                             storeSerial;
-
-    private int                             cachedStoreSerial = -1;
-    private Map<File, StatusInfo> cachedValues;
+    private static final String CACHE_FILE = "gitstatus.db"; // NOI18N
+    /** Maximum time a write stays queued before it is flushed to disk. */
+    private static final int FLUSH_DELAY = 1000;
+    /** Number of queued directories that triggers an immediate flush. */
+    private static final int FLUSH_THRESHOLD = 500;
+    /** Queued value of a directory whose entry is to be removed. */
+    private static final Object REMOVED = new Object();
+
+    private StatusStore store;
+    private final StatusCodec codec = new StatusCodec();
+
+    /**
+     * Valuable entries of each stored directory, kept up to date by
+     * {@link #writeEntry} and guarded by {@link #modifiedLock}.
+     */
+    private final Map<String, Map<File, StatusInfo>> modifiedValues = new HashMap<String, Map<File, StatusInfo>>();
+    private final Object modifiedLock = new Object();
+    private volatile Map<File, StatusInfo> modifiedSnapshot;
+
+    /**
+     * Writes not yet flushed to the store, keyed by directory. Repeated
+     * writes of a directory replace the queued value. The status maps are
+     * queued as they are, StatusCache never changes a map once written.
+     * Guarded by {@link #pendingLock}.
+     */
+    private final Map<File, Object> pendingWrites = new LinkedHashMap<File, Object>();
+    private final Object pendingLock = new Object();
+    private boolean flushScheduled;
+    private final RequestProcessor.Task flushTask;
 
     DiskMapTurboProvider() {
         initCacheStore();
+        flushTask = new RequestProcessor("GitStatusWriter", 1).create(new Runnable() { // NOI18N
+            public void run() {
+                flush();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread("GitStatusWriter shutdown") { // NOI18N
+            @Override
+            public void run() {
+                flush();
+                synchronized (DiskMapTurboProvider.this) {
+                    store.close();
+                }
+            }
+        });
     }
 
-    synchronized Map<File, StatusInfo>  getAllModifiedValues() {
-        if (cachedStoreSerial != storeSerial || cachedValues == null) {
-            cachedValues = new HashMap<File, StatusInfo>();
-            File [] files = cacheStore.listFiles();
-            for (int i = 0; i < files.length; i++) {
-                File file = files[i];
-                if (file.getName().endsWith(".bin") == false) { // NOI18N
-                    // on windows list returns already deleted .new files
-                    continue;
-                }
-                DataInputStream dis = null;
-                try {
-                    int retry = 0;
-                    while (true) {
-                        try {
-                            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
-                            break;
-                        } catch (IOException ioex) {
-                            retry++;
-                            if (retry > 7) {
-                                throw ioex;
-                            }
-                            Thread.sleep(retry * 30);
-                        }
+    /**
+     * Get all stored files with a valuable status. The returned map is
+     * immutable and stays the same object until the set of modified files
+     * changes.
+     */
+    Map<File, StatusInfo> getAllModifiedValues() {
+        Map<File, StatusInfo> snapshot = modifiedSnapshot;
+        if (snapshot == null) {
+            synchronized (modifiedLock) {
+                snapshot = modifiedSnapshot;
+                if (snapshot == null) {
+                    Map<File, StatusInfo> values = new HashMap<File, StatusInfo>();
+                    for (Map<File, StatusInfo> dirValues : modifiedValues.values()) {
+                        values.putAll(dirValues);
                     }
+                    snapshot = Collections.unmodifiableMap(values);
+                    modifiedSnapshot = snapshot;
+                }
+            }
+        }
+        return snapshot;
+    }
 
-                    for (;;) {
-                        int pathLen = dis.readInt();
-                        dis.readInt();
-                        String path = readChars(dis, pathLen);
-                        Map<File, StatusInfo> value = readValue(dis, path);
-                        for (File f : value.keySet()) {
-                            StatusInfo info = value.get(f);
-                            if ((info.getStatus() & DiskMapTurboProvider.STATUS_VALUABLE) != 0) {
-                                cachedValues.put(f, info);
-                            }
-                        }
-                    }
-                } catch (EOFException e) {
-                    // reached EOF, no entry for this key
-                } catch (Exception e) {
-                    Git.LOG.log(Level.WARNING, null, e);
-                } finally {
-                    if (dis != null) try { dis.close(); } catch (IOException e) {}
+    private void loadRoots() {
+        byte[] value = store.get(codec.getRootsKey());
+        if (value != null) {
+            try {
+                codec.readRoots(value);
+            } catch (IOException e) {
+                Git.LOG.log(Level.WARNING, null, e);
+                store.clear();
+            }
+        }
+    }
+
+    private void loadModifiedValues() {
+        for (StatusStore.Entry entry : store.getAll()) {
+            if (codec.isRootsKey(entry.getKey())) {
+                continue;
+            }
+            try {
+                String dirPath = codec.decodeKey(entry.getKey());
+                updateModifiedValues(dirPath, codec.decodeValue(entry.getValue(), dirPath));
+            } catch (IOException e) {
+                Git.LOG.log(Level.WARNING, null, e);
+                store.remove(entry.getKey());
+            }
+        }
+    }
+
+    private void updateModifiedValues(String dirPath, Map<File, StatusInfo> value) {
+        Map<File, StatusInfo> dirValues = new HashMap<File, StatusInfo>();
+        if (value != null) {
+            for (Map.Entry<File, StatusInfo> entry : value.entrySet()) {
+                if ((entry.getValue().getStatus() & DiskMapTurboProvider.STATUS_VALUABLE) != 0) {
+                    dirValues.put(entry.getKey(), entry.getValue());
                 }
             }
-            cachedStoreSerial = storeSerial;
-            cachedValues = Collections.unmodifiableMap(cachedValues);
         }
-        return cachedValues;
+        synchronized (modifiedLock) {
+            Map<File, StatusInfo> oldValues = dirValues.isEmpty()
+                    ? modifiedValues.remove(dirPath)
+                    : modifiedValues.put(dirPath, dirValues);
+            if (!isSame(oldValues, dirValues)) {
+                modifiedSnapshot = null;
+            }
+        }
+    }
+
+    private static boolean isSame(Map<File, StatusInfo> oldValues, Map<File, StatusInfo> newValues) {
+        if (oldValues == null) {
+            return newValues.isEmpty();
+        }
+        if (oldValues.size() != newValues.size()) {
+            return false;
+        }
+        for (Map.Entry<File, StatusInfo> entry : newValues.entrySet()) {
+            StatusInfo oldInfo = oldValues.get(entry.getKey());
+            StatusInfo newInfo = entry.getValue();
+            if (oldInfo == null || oldInfo.getStatus() != newInfo.getStatus() ||
+                    oldInfo.isDirectory() != newInfo.isDirectory()) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public boolean recognizesAttribute(String name) {
@@ -144,63 +213,44 @@ public boolean recognizesEntity(Object key) {
         return key instanceof File;
     }
 
-    public synchronized Object readEntry(Object key, String name, MemoryCache memoryCache) {
+    public Object readEntry(Object key, String name, MemoryCache memoryCache) {
         assert key instanceof File;
         assert name != null;
 
-        boolean readFailed = false;
         File dir = (File) key;
-        File store = getStore(dir);
-        if (!store.isFile()) {
-            return null;
+        synchronized (pendingLock) {
+            Object value = pendingWrites.get(dir);
+            if (value == REMOVED) {
+                return null;
+            } else if (value != null) {
+                return value;
+            }
         }
+        return readStoredEntry(dir);
+    }
 
+    private synchronized Map<File, StatusInfo> readStoredEntry(File dir) {
         String dirPath = dir.getAbsolutePath();
-        int dirPathLen = dirPath.length();
-        DataInputStream dis = null;
+        byte[] storeKey = null;
         try {
-
-            int retry = 0;
-            while (true) {
-                try {
-                    dis = new DataInputStream(new BufferedInputStream(new FileInputStream(store)));
-                    break;
-                } catch (IOException ioex) {
-                    retry++;
-                    if (retry > 7) {
-                        throw ioex;
-                    }
-                    Thread.sleep(retry * 30);
-                }
-            }
-
-            for (;;) {
-                int pathLen = dis.readInt();
-                int mapLen = dis.readInt();
-                if (pathLen != dirPathLen) {
-                    skip(dis, pathLen * 2 + mapLen);
-                } else {
-                    String path = readChars(dis, pathLen);
-                    if (dirPath.equals(path)) {
-                        return readValue(dis, path);
-                    } else {
-                        skip(dis, mapLen);
-                    }
-                }
+            storeKey = codec.encodeKey(dirPath);
+            byte[] value = store.get(storeKey);
+            if (value == null) {
+                return null;
             }
-        } catch (EOFException e) {
-            // reached EOF, no entry for this key
-        } catch (Exception e) {
+            return codec.decodeValue(value, dirPath);
+        } catch (IOException e) {
             Git.LOG.log(Level.INFO, null, e);
-            readFailed = true;
-        } finally {
-            if (dis != null) try { dis.close(); } catch (IOException e) {}
+            if (storeKey != null) {
+                store.remove(storeKey);
+                updateModifiedValues(dirPath, null);
+            }
+            return null;
         }
-        if (readFailed) store.delete();
-        return null;
     }
 
-    public synchronized boolean writeEntry(Object key, String name, Object value) {
+    @SuppressWarnings("unchecked") // Need to change turbo module to remove warning at source
+    public boolean writeEntry(Object key, String name, Object value) {
         assert key instanceof File;
         assert name != null;
 
@@ -210,79 +260,88 @@ public synchronized boolean writeEntry(Object key, String name, Object value) {
         }
 
         File dir = (File) key;
-        String dirPath = dir.getAbsolutePath();
-        int dirPathLen = dirPath.length();
-        File store = getStore(dir);
-
-        if (value == null && !store.exists()) return true;
-
-        File storeNew = new File(store.getParentFile(), store.getName() + ".new"); // NOI18N
+        Map<File, StatusInfo> map = (Map<File, StatusInfo>) value;
+        updateModifiedValues(dir.getAbsolutePath(), map);
+        synchronized (pendingLock) {
+            pendingWrites.put(dir, map == null ? REMOVED : map);
+            if (pendingWrites.size() >= FLUSH_THRESHOLD) {
+                flushScheduled = true;
+                flushTask.schedule(0);
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                flushTask.schedule(FLUSH_DELAY);
+            }
+        }
+        return true;
+    }
 
-        DataOutputStream oos = null;
-        DataInputStream dis = null;
-        try {
-            oos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(storeNew)));
-            if (value != null) {
-                writeEntry(oos, dirPath, value);
+    /**
+     * Write all queued entries to the store. Entries stay visible in the
+     * queue until they are stored, so readers never miss a value.
+     */
+    @SuppressWarnings("unchecked")
+    void flush() {
+        Map<File, Object> batch;
+        synchronized (pendingLock) {
+            flushScheduled = false;
+            if (pendingWrites.isEmpty()) {
+                return;
             }
-            if (store.exists()) {
-                int retry = 0;
-                while (true) {
-                    try {
-                        dis = new DataInputStream(new BufferedInputStream(new FileInputStream(store)));
-                        break;
-                    } catch (IOException ioex) {
-                        retry++;
-                        if (retry > 7) {
-                            throw ioex;
+            batch = new LinkedHashMap<File, Object>(pendingWrites);
+        }
+        synchronized (this) {
+            for (Map.Entry<File, Object> entry : batch.entrySet()) {
+                File dir = entry.getKey();
+                String dirPath = dir.getAbsolutePath();
+                try {
+                    if (entry.getValue() == REMOVED) {
+                        store.remove(codec.encodeKey(dirPath));
+                    } else {
+                        if (!codec.hasRoot(dirPath)) {
+                            addRoot(dir);
                         }
-                        Thread.sleep(retry * 30);
+                        store.put(codec.encodeKey(dirPath), codec.encodeValue((Map<File, StatusInfo>) entry.getValue()));
                     }
+                } catch (IOException e) {
+                    Git.LOG.log(Level.WARNING, "flush(): {0}", dirPath); //NOI18N
                 }
-
-                for (;;) {
-                    int pathLen;
-                    try {
-                        pathLen = dis.readInt();
-                    } catch (EOFException e) {
-                        break;
-                    }
-                    int mapLen = dis.readInt();
-                    if (pathLen == dirPathLen) {
-                        String path = readChars(dis, pathLen);
-                        if (dirPath.equals(path)) {
-                            skip(dis, mapLen);
-                        } else {
-                            oos.writeInt(pathLen);
-                            oos.writeInt(mapLen);
-                            oos.writeChars(path);
-                            DiskMapTurboProvider.copyStreams(oos, dis, mapLen);
-                        }
-                    } else {
-                        oos.writeInt(pathLen);
-                        oos.writeInt(mapLen);
-                        DiskMapTurboProvider.copyStreams(oos, dis, mapLen + pathLen * 2);
-                    }
+            }
+        }
+        synchronized (pendingLock) {
+            for (Map.Entry<File, Object> entry : batch.entrySet()) {
+                if (pendingWrites.get(entry.getKey()) == entry.getValue()) {
+                    pendingWrites.remove(entry.getKey());
                 }
             }
-        } catch (Exception e) {
-            Git.LOG.log(Level.WARNING, "writeEntry(): Copy: {0} to: {1}", new Object[] {store.getAbsolutePath(), storeNew.getAbsolutePath()}); //NOI18N
-            return true;
-        } finally {
-            if (oos != null) try { oos.close(); } catch (IOException e) {}
-            if (dis != null) try { dis.close(); } catch (IOException e) {}
         }
-        storeSerial++;
-        store.delete();
-        storeNew.renameTo(store);
-        return true;
     }
 
-    private void skip(InputStream is, long len) throws IOException {
-        while (len > 0) {
-            long n = is.skip(len);
-            if (n < 0) throw new EOFException("Missing " + len + " bytes.");  // NOI18N
-            len -= n;
+    /**
+     * Register the repository root of a directory so the paths below it
+     * can be stored relative to the root.
+     */
+    private void addRoot(File dir) throws IOException {
+        File root = Git.getInstance().getTopmostManagedParent(dir);
+        if (root == null) {
+            return;
+        }
+        String rootPath = root.getAbsolutePath();
+        List<StatusStore.Entry> moved = new ArrayList<StatusStore.Entry>();
+        for (StatusStore.Entry entry : store.getAll()) {
+            if (!codec.isRootsKey(entry.getKey()) &&
+                    StatusCodec.isBelow(codec.decodeKey(entry.getKey()), rootPath)) {
+                moved.add(entry);
+            }
+        }
+        for (StatusStore.Entry entry : moved) {
+            store.remove(entry.getKey());
+        }
+        if (codec.addRoot(rootPath)) {
+            store.put(codec.getRootsKey(), codec.writeRoots());
+        }
+        for (StatusStore.Entry entry : moved) {
+            String path = codec.decodeKey(entry.getKey());
+            store.put(codec.encodeKey(path), entry.getValue());
         }
     }
 
@@ -294,6 +353,10 @@ private String readChars(DataInputStream dis, int len) throws IOException {
         return sb.toString();
     }
 
+    /**
+     * Read a status map in the format of the bucket files written by
+     * older versions.
+     */
     private Map<File, StatusInfo> readValue(DataInputStream dis, String dirPath) throws IOException {
         Map<File, StatusInfo> map = new HashMap<File, StatusInfo>();
         int len = dis.readInt();
@@ -308,30 +371,6 @@ private Map<File, StatusInfo> readValue(DataInputStream dis, String dirPath) thr
         return map;
     }
 
-    private void writeEntry(DataOutputStream dos, String dirPath, Object value) throws IOException {
-
-        Map map = (Map) value;
-        Set set = map.keySet();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(set.size() * 50);
-        DataOutputStream temp = new DataOutputStream(baos);
-
-        temp.writeInt(set.size());
-        for (Iterator i = set.iterator(); i.hasNext();) {
-            File file = (File) i.next();
-            StatusInfo info = (StatusInfo) map.get(file);
-            temp.writeInt(file.getName().length());
-            temp.writeChars(file.getName());
-            temp.writeInt(info.getStatus() + (info.isDirectory() ? 65536 : 0));
-        }
-        temp.close();
-        byte [] valueBytes = baos.toByteArray();
-
-        dos.writeInt(dirPath.length());
-        dos.writeInt(valueBytes.length);
-        dos.writeChars(dirPath);
-        dos.write(valueBytes);
-    }
-
     private boolean isValuable(Object value) {
         Map map = (Map) value;
         for (Iterator i = map.values().iterator(); i.hasNext();) {
@@ -341,12 +380,6 @@ private boolean isValuable(Object value) {
         return false;
     }
 
-    private File getStore(File dir) {
-        String dirPath = dir.getAbsolutePath();
-        int dirHash = dirPath.hashCode();
-        return new File(cacheStore, Integer.toString(dirHash % 173 + 172) + ".bin"); // NOI18N
-    }
-
     private void initCacheStore() {
         String userDir = System.getProperty("netbeans.user"); // NOI18N
         File cacheRoot;
@@ -355,19 +388,49 @@ private void initCacheStore() {
         } else {
             cacheRoot = FileUtil.toFile(FileUtil.getConfigRoot());
         }
-        cacheStore = new File(cacheRoot, DiskMapTurboProvider.CACHE_DIRECTORY); // NOI18N
-        cacheStore.mkdirs();
+        cacheRoot.mkdirs();
+        store = StatusStore.open(new File(cacheRoot, DiskMapTurboProvider.CACHE_FILE), StatusCodec.VERSION);
+        loadRoots();
+
+        File oldStore = new File(cacheRoot, DiskMapTurboProvider.CACHE_DIRECTORY);
+        if (oldStore.isDirectory()) {
+            migrateCacheStore(oldStore);
+        }
+        loadModifiedValues();
     }
 
-    private static void copyStreams(OutputStream out, InputStream in, int len) throws IOException {
-        byte [] buffer = new byte[4096];
-        for (;;) {
-            int n = (len <= 4096) ? len : 4096;
-            n = in.read(buffer, 0, n);
-            if (n < 0) throw new EOFException("Missing " + len + " bytes.");  // NOI18N
-            out.write(buffer, 0, n);
-            if ((len -= n) == 0) break;
+    /**
+     * Import the entries of the bucket files written by older versions
+     * and remove them.
+     */
+    private void migrateCacheStore(File oldStore) {
+        File [] files = oldStore.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            File file = files[i];
+            if (file.getName().endsWith(".bin")) { // NOI18N
+                DataInputStream dis = null;
+                try {
+                    dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                    for (;;) {
+                        int pathLen = dis.readInt();
+                        dis.readInt();
+                        String path = readChars(dis, pathLen);
+                        Map<File, StatusInfo> value = readValue(dis, path);
+                        byte[] key = codec.encodeKey(path);
+                        if (store.get(key) == null && isValuable(value)) {
+                            store.put(key, codec.encodeValue(value));
+                        }
+                    }
+                } catch (EOFException e) {
+                    // reached EOF, all entries of this bucket imported
+                } catch (IOException e) {
+                    Git.LOG.log(Level.INFO, null, e);
+                } finally {
+                    if (dis != null) try { dis.close(); } catch (IOException e) {}
+                }
+            }
+            file.delete();
         }
-        out.flush();
+        oldStore.delete();
     }
 }
@@ -47,16 +47,22 @@
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.nbgit.util.GitCommand;
 import org.nbgit.util.GitUtils;
+import org.nbgit.util.exclude.Excludes;
 import org.netbeans.modules.versioning.spi.VersioningSupport;
 import org.openide.filesystems.FileObject;
 import org.openide.filesystems.FileUtil;
 import org.openide.util.RequestProcessor;
-import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.Repository;
 
 /**
@@ -71,6 +77,7 @@ public class Git {
     public static final String PROP_ANNOTATIONS_CHANGED = "annotationsChanged"; // NOI18N
     public static final String PROP_VERSIONED_FILES_CHANGED = "versionedFilesChanged"; // NOI18N
     public static final String PROP_CHANGESET_CHANGED = "changesetChanged"; // NOI18N
+    public static final String PROP_REPOSITORY_CLOSED = "repositoryClosed"; // NOI18N
     public static final Logger LOG = Logger.getLogger("org.nbgit"); // NOI18N
     private static final int STATUS_DIFFABLE =
             StatusInfo.STATUS_VERSIONED_UPTODATE |
@@ -82,9 +89,15 @@ public class Git {
             StatusInfo.STATUS_VERSIONED_MODIFIEDINREPOSITORY |
             StatusInfo.STATUS_VERSIONED_MODIFIEDINREPOSITORY;
     private final PropertyChangeSupport support = new PropertyChangeSupport(this);
+    private static final int MAX_CACHED_PARENTS = 50000;
+    private static final File NOT_MANAGED = new File(""); // NOI18N
     private final StatusCache statusCache = new StatusCache(this);
-    private HashMap<String, RequestProcessor> processorsToUrl;
-    private final Map<File, Repository> repos = new HashMap<File, Repository>();
+    private final ConcurrentMap<File, File> topmostParents = new ConcurrentHashMap<File, File>();
+    private final Map<File, Boolean> knownRoots = new ConcurrentHashMap<File, Boolean>();
+    private final AtomicInteger rootsGeneration = new AtomicInteger();
+    private final Map<String, RequestProcessor> processorsToUrl = new HashMap<String, RequestProcessor>();
+    private final RepositoryRegistry repositories = new RepositoryRegistry(this);
+    private final RepositoryScheduler scheduler = new RepositoryScheduler("Git Refresh"); // NOI18N
     private static Git instance;
 
     private Git() {
@@ -97,19 +110,78 @@ public static synchronized Git getInstance() {
         return instance;
     }
 
+    /**
+     * Get a repository for immediate use. The repository is not referenced
+     * and may be closed once it has been idle for a while, so it must not
+     * be kept beyond the current operation. Code running in a
+     * {@link GitProgressSupport} has its repository acquired
+     * already, anything else keeping the repository, such as a view,
+     * should use {@link #acquireRepository(File)} instead.
+     *
+     * @param root of the working directory
+     * @return the repository or null if it could not be opened
+     */
     public Repository getRepository(File root) {
-        Repository repo = repos.get(root);
+        return repositories.get(root);
+    }
 
-        if (repo == null) {
-            final File gitDir = new File(root, Constants.DOT_GIT);
-            try {
-                repo = new Repository(gitDir);
-                repos.put(root, repo);
-            } catch (IOException ex) {
-            }
-        }
+    /**
+     * Get a repository and keep it open until it is released. Use this
+     * instead of {@link #getRepository(File)} for long running operations.
+     *
+     * @param root of the working directory
+     * @return the repository or null if it could not be opened
+     */
+    public Repository acquireRepository(File root) {
+        return repositories.acquire(root);
+    }
+
+    public void releaseRepository(File root) {
+        repositories.release(root);
+    }
+
+    /**
+     * @return the number of repositories currently open.
+     */
+    public int getOpenRepositoryCount() {
+        return repositories.getOpenCount();
+    }
+
+    /**
+     * @return the number of idle repositories closed so far.
+     */
+    public int getRepositoryEvictionCount() {
+        return repositories.getEvictionCount();
+    }
+
+    /**
+     * Check whether background jobs of a repository are pending or
+     * running, in which case it must not be closed.
+     */
+    boolean isRepositoryBusy(File root) {
+        return scheduler.isBusy(root);
+    }
+
+    /**
+     * Called when an idle repository has been closed to drop everything
+     * derived from it. The request processor of the repository is kept,
+     * it holds no thread while idle and callers may already have queued
+     * work on it.
+     */
+    void repositoryClosed(File root, Repository repository) {
+        Excludes.repositoryClosed(repository);
+        GitCommand.forgetStatus(root);
+        statusCache.repositoryClosed(root);
+        scheduler.removeIdle(root);
+        support.firePropertyChange(PROP_REPOSITORY_CLOSED, null, root);
+    }
 
-        return repo;
+    /**
+     * Get the scheduler running background status work with one lane
+     * per repository.
+     */
+    RepositoryScheduler getScheduler() {
+        return scheduler;
     }
 
     /**
@@ -147,6 +219,16 @@ public boolean isManaged(File file) {
         return VersioningSupport.getOwner(file) instanceof GitVCS && !GitUtils.isPartOfGitMetadata(file);
     }
 
+    /**
+     * Find the root of the repository containing a file. Results are
+     * cached for the file and all the directories visited on the way up,
+     * including negative results, so siblings of an earlier lookup only
+     * check themselves and repeated lookups touch no files at all.
+     *
+     * @param file a file or directory
+     * @return the working directory of the repository or null if the
+     *      file is not managed by Git
+     */
     public File getTopmostManagedParent(File file) {
         if (GitUtils.isPartOfGitMetadata(file)) {
             for (; file != null; file = file.getParentFile()) {
@@ -157,18 +239,79 @@ public File getTopmostManagedParent(File file) {
             }
         }
         File topmost = null;
+        List<File> visited = new ArrayList<File>();
+        int generation = rootsGeneration.get();
         for (; file != null; file = file.getParentFile()) {
+            File cached = topmostParents.get(file);
+            if (cached != null) {
+                topmost = cached == NOT_MANAGED ? null : cached;
+                break;
+            }
+            visited.add(file);
             if (org.netbeans.modules.versioning.util.Utils.isScanForbidden(file)) {
                 break;
             }
             if (new File(file, ".git").canWrite()) { // NOI18N
                 topmost = file;
+                knownRoots.put(topmost, Boolean.TRUE);
                 break;
             }
         }
+        // Do not cache a result computed while the repositories changed.
+        if (!visited.isEmpty() && rootsGeneration.get() == generation) {
+            if (topmostParents.size() > MAX_CACHED_PARENTS) {
+                topmostParents.clear();
+            }
+            File value = topmost != null ? topmost : NOT_MANAGED;
+            for (File dir : visited) {
+                topmostParents.put(dir, value);
+            }
+            if (rootsGeneration.get() != generation) {
+                // Changed while storing, the clear may have missed some entries
+                for (File dir : visited) {
+                    topmostParents.remove(dir, value);
+                }
+            }
+        }
         return topmost;
     }
 
+    /**
+     * Notify that a file was created, deleted or moved. Forgets the cached
+     * repository roots if the file is a <tt>.git</tt> directory or contains
+     * a known repository, and cancels the background jobs of repositories
+     * which no longer exist.
+     *
+     * @param file that changed
+     */
+    public void repositoryFileChanged(File file) {
+        if (file == null) {
+            return;
+        }
+        boolean changed = isAdministrative(file.getName());
+        if (!changed) {
+            String prefix = file.getAbsolutePath() + File.separator;
+            for (File root : knownRoots.keySet()) {
+                if (root.equals(file) || root.getAbsolutePath().startsWith(prefix)) {
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        if (changed) {
+            LOG.log(Level.FINE, "Repository roots changed: {0}", file); // NOI18N
+            rootsGeneration.incrementAndGet();
+            topmostParents.clear();
+            for (File root : knownRoots.keySet()) {
+                if (!new File(root, ".git").exists()) { // NOI18N
+                    // The repository is gone, its background work is moot
+                    scheduler.cancel(root);
+                }
+            }
+            knownRoots.clear();
+        }
+    }
+
     /**
      * Uses content analysis to return the mime type for files.
      *
@@ -249,10 +392,7 @@ public RequestProcessor getRequestProcessor(File file) {
         return getRequestProcessor(file.getAbsolutePath());
     }
 
-    public RequestProcessor getRequestProcessor(String url) {
-        if (processorsToUrl == null) {
-            processorsToUrl = new HashMap<String, RequestProcessor>();
-        }
+    public synchronized RequestProcessor getRequestProcessor(String url) {
         String key;
         if (url != null) {
             key = url;
@@ -267,8 +407,8 @@ public RequestProcessor getRequestProcessor(String url) {
         return rp;
     }
 
-    public void clearRequestProcessor(String url) {
-        if (processorsToUrl != null & url != null) {
+    public synchronized void clearRequestProcessor(String url) {
+        if (url != null) {
             processorsToUrl.remove(url);
         }
     }
@@ -46,10 +46,11 @@
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.ResourceBundle;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Set;
 import java.util.logging.Level;
 import javax.swing.Action;
 import org.nbgit.ui.browser.BrowserAction;
@@ -73,7 +74,6 @@
 import org.openide.nodes.Node;
 import org.openide.util.ImageUtilities;
 import org.openide.util.NbBundle;
-import org.openide.util.RequestProcessor;
 
 /**
  * Responsible for coloring file labels and file icons in the IDE and providing
@@ -94,16 +94,12 @@ public class GitAnnotator extends VCSAnnotator {
     public static String ANNOTATION_FOLDER = "folder"; // NOI18N
     public static String[] LABELS = new String[]{ANNOTATION_REVISION, ANNOTATION_STATUS, ANNOTATION_FOLDER};
     private StatusCache cache;
-    private File folderToScan;
-    private ConcurrentLinkedQueue<File> dirsToScan = new ConcurrentLinkedQueue<File>();
-    private RequestProcessor.Task scanTask;
-    private static final RequestProcessor rp = new RequestProcessor("GitAnnotateScan", 1, true); // NOI18N
+    private final Map<File, ScanTask> scanTasks = new HashMap<File, ScanTask>();
     private final HtmlFormatter format;
 
     public GitAnnotator() {
         format = HtmlFormatter.getInstance();
         cache = Git.getInstance().getStatusCache();
-        scanTask = rp.create(new ScanTask());
     }
 
     @Override
@@ -118,9 +114,10 @@ public String annotateName(String name, VCSContext context) {
             StatusInfo info = cache.getCachedStatus(file, true);
             if (info == null) {
                 File parentFile = file.getParentFile();
-                Git.LOG.log(Level.FINE, "null cached status for: {0} {1} {2}", new Object[]{file, folderToScan, parentFile});
-                folderToScan = parentFile;
-                reScheduleScan(1000);
+                Git.LOG.log(Level.FINE, "null cached status for: {0} {1}", new Object[]{file, parentFile});
+                if (parentFile != null) {
+                    scheduleScan(parentFile);
+                }
                 info = new StatusInfo(StatusInfo.STATUS_VERSIONED_UPTODATE, false);
             }
             int status = info.getStatus();
@@ -413,27 +410,64 @@ private boolean onlyFolders(File[] files) {
         return true;
     }
 
-    private void reScheduleScan(int delayMillis) {
-        File dirToScan = dirsToScan.peek();
-        if (!folderToScan.equals(dirToScan)) {
-            if (!dirsToScan.offer(folderToScan)) {
-                Git.LOG.log(Level.FINE, "reScheduleScan failed to add to dirsToScan queue: {0} ", folderToScan);
+    private void scheduleScan(File dir) {
+        File root = Git.getInstance().getTopmostManagedParent(dir);
+        ScanTask task;
+        synchronized (scanTasks) {
+            task = scanTasks.get(root);
+            if (task == null) {
+                task = new ScanTask(root);
+                scanTasks.put(root, task);
             }
         }
-        scanTask.schedule(delayMillis);
+        if (task.add(dir)) {
+            Git.getInstance().getScheduler().post(root, task, 1000, true);
+        }
     }
 
+    /**
+     * Forget the scan task of a repository which has been closed.
+     */
+    void repositoryClosed(File root) {
+        synchronized (scanTasks) {
+            scanTasks.remove(root);
+        }
+    }
+
+    /**
+     * Scans all pending directories of a repository in one batch, so they
+     * share one status scan and cause a single annotation refresh.
+     */
     private class ScanTask implements Runnable {
 
+        private final File root;
+        private final Set<File> dirsToScan = new LinkedHashSet<File>();
+
+        ScanTask(File root) {
+            this.root = root;
+        }
+
+        synchronized boolean add(File dir) {
+            return dirsToScan.add(dir);
+        }
+
         public void run() {
             Thread.interrupted();
-            File dirToScan = dirsToScan.poll();
-            if (dirToScan != null) {
-                cache.getScannedFiles(dirToScan, null);
-                dirToScan = dirsToScan.peek();
-                if (dirToScan != null) {
-                    scanTask.schedule(1000);
+            List<File> dirs;
+            synchronized (this) {
+                dirs = new ArrayList<File>(dirsToScan);
+                dirsToScan.clear();
+            }
+            if (dirs.isEmpty()) {
+                return;
+            }
+            Git.LOG.log(Level.FINE, "Scanning {0} folders in {1}", new Object[]{dirs.size(), root}); // NOI18N
+            if (root == null) {
+                for (File dir : dirs) {
+                    cache.getScannedFiles(dir, null);
                 }
+            } else {
+                cache.scanFolders(root, dirs);
             }
         }
     }
@@ -43,10 +43,13 @@
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 import javax.swing.SwingUtilities;
 import org.nbgit.client.IndexBuilder;
@@ -66,13 +69,10 @@ public class GitInterceptor extends VCSInterceptor {
 
     private final StatusCache cache;
     private ConcurrentHashMap<File, File> dirsToDelete = new ConcurrentHashMap<File, File>();
-    private ConcurrentLinkedQueue<File> filesToRefresh = new ConcurrentLinkedQueue<File>();
-    private RequestProcessor.Task refreshTask;
-    private static final RequestProcessor refresh = new RequestProcessor("GitRefresh", 1, true);
+    private final Map<File, RefreshTask> refreshTasks = new HashMap<File, RefreshTask>();
 
     public GitInterceptor() {
         cache = Git.getInstance().getStatusCache();
-        refreshTask = refresh.create(new RefreshTask());
     }
 
     @Override
@@ -111,6 +111,8 @@ public void run() {
     }
 
     private void fileDeletedImpl(final File file) {
+        Excludes.ignoreFileChanged(file);
+        Git.getInstance().repositoryFileChanged(file);
         if (file == null || !file.exists()) {
             return;
         }
@@ -118,6 +120,7 @@ private void fileDeletedImpl(final File file) {
         final File root = git.getTopmostManagedParent(file);
         RequestProcessor rp = null;
         if (root != null) {
+            GitCommand.invalidateStatus(root);
             rp = git.getRequestProcessor(root.getAbsolutePath());
         }
         if (file.isDirectory()) {
@@ -134,21 +137,8 @@ public void perform() {
                     remove();
                     // We need to cache the status of all deleted files
                     Map<File, StatusInfo> interestingFiles = GitCommand.getInterestingStatus(root, file);
-                    if (!interestingFiles.isEmpty()) {
-                        Collection<File> files = interestingFiles.keySet();
-
-                        Map<File, Map<File, StatusInfo>> interestingDirs =
-                                GitUtils.getInterestingDirs(interestingFiles, files);
-
-                        for (File tmpFile : files) {
-                            if (this.isCanceled()) {
-                                return;
-                            }
-                            StatusInfo fi = interestingFiles.get(tmpFile);
-
-                            cache.refreshFileStatus(tmpFile, fi,
-                                    interestingDirs.get(tmpFile.isDirectory() ? tmpFile : tmpFile.getParentFile()), true);
-                        }
+                    if (!this.isCanceled()) {
+                        cache.applyStatusBatch(interestingFiles);
                     }
                 }
 
@@ -257,6 +247,7 @@ private void gitMoveImplementation(final File srcFile, final File dstFile) throw
         Git.LOG.log(Level.FINE, "gitMoveImplementation(): File: {0} {1}", new Object[]{srcFile, dstFile}); // NOI18N
 
         srcFile.renameTo(dstFile);
+        GitCommand.invalidateStatus(root);
         Runnable moveImpl = new Runnable() {
 
             public void run() {
@@ -298,6 +289,10 @@ public void run() {
     }
 
     private void fileMovedImpl(final File from, final File to) {
+        Excludes.ignoreFileChanged(from);
+        Excludes.ignoreFileChanged(to);
+        Git.getInstance().repositoryFileChanged(from);
+        Git.getInstance().repositoryFileChanged(to);
         if (from == null || to == null || !to.exists()) {
             return;
         }
@@ -309,6 +304,7 @@ private void fileMovedImpl(final File from, final File to) {
         if (root == null) {
             return;
         }
+        GitCommand.invalidateStatus(root);
         RequestProcessor rp = git.getRequestProcessor(root.getAbsolutePath());
 
         GitProgressSupport supportCreate = new GitProgressSupport() {
@@ -344,14 +340,17 @@ public void run() {
     }
 
     private void fileCreatedImpl(final File file) {
+        Git.getInstance().repositoryFileChanged(file);
         if (file.isDirectory()) {
             return;
         }
+        Excludes.ignoreFileChanged(file);
         Git git = Git.getInstance();
         final File root = git.getTopmostManagedParent(file);
         if (root == null) {
             return;
         }
+        GitCommand.invalidateStatus(root);
         RequestProcessor rp = git.getRequestProcessor(root.getAbsolutePath());
 
         GitProgressSupport supportCreate = new GitProgressSupport() {
@@ -379,11 +378,13 @@ private void fileChangedImpl(final File file) {
         if (file.isDirectory()) {
             return;
         }
+        Excludes.ignoreFileChanged(file);
         Git git = Git.getInstance();
         final File root = git.getTopmostManagedParent(file);
         if (root == null) {
             return;
         }
+        GitCommand.invalidateStatus(root);
         RequestProcessor rp = git.getRequestProcessor(root.getAbsolutePath());
 
         GitProgressSupport supportCreate = new GitProgressSupport() {
@@ -403,26 +404,71 @@ private void reScheduleRefresh(File fileToRefresh) {
         if (Excludes.isIgnored(fileToRefresh, false)) {
             return;
         }
-        if (!filesToRefresh.contains(fileToRefresh)) {
-            if (!filesToRefresh.offer(fileToRefresh)) {
-                Git.LOG.log(Level.FINE, "reScheduleRefresh failed to add to filesToRefresh queue {0}", fileToRefresh);
+        File root = Git.getInstance().getTopmostManagedParent(fileToRefresh);
+        RefreshTask task;
+        synchronized (refreshTasks) {
+            task = refreshTasks.get(root);
+            if (task == null) {
+                task = new RefreshTask(root);
+                refreshTasks.put(root, task);
             }
         }
-        refreshTask.schedule(1000);
+        task.add(fileToRefresh);
+        Git.getInstance().getScheduler().post(root, task, 1000, false);
+    }
+
+    /**
+     * Forget the refresh task of a repository which has been closed.
+     */
+    void repositoryClosed(File root) {
+        synchronized (refreshTasks) {
+            refreshTasks.remove(root);
+        }
     }
 
+    /**
+     * Refreshes all pending files of a repository at once. The status of
+     * the repository is computed once per batch and the results are
+     * applied with a single cache update.
+     */
     private class RefreshTask implements Runnable {
 
+        private final File root;
+        private final Set<File> filesToRefresh = new LinkedHashSet<File>();
+
+        RefreshTask(File root) {
+            this.root = root;
+        }
+
+        synchronized void add(File file) {
+            filesToRefresh.add(file);
+        }
+
         public void run() {
             Thread.interrupted();
-            File fileToRefresh = filesToRefresh.poll();
-            if (fileToRefresh != null) {
-                cache.refresh(fileToRefresh, StatusCache.REPOSITORY_STATUS_UNKNOWN);
-                fileToRefresh = filesToRefresh.peek();
-                if (fileToRefresh != null) {
-                    refreshTask.schedule(0);
+            List<File> files;
+            synchronized (this) {
+                files = new ArrayList<File>(filesToRefresh);
+                filesToRefresh.clear();
+            }
+            List<File> batch = new ArrayList<File>();
+            Set<File> dirs = new LinkedHashSet<File>();
+            for (File file : files) {
+                if (root == null || file.isDirectory()) {
+                    cache.refresh(file, StatusCache.REPOSITORY_STATUS_UNKNOWN);
+                } else {
+                    batch.add(file);
+                    dirs.add(file.getParentFile());
                 }
             }
+            if (batch.isEmpty()) {
+                return;
+            }
+            Git.LOG.log(Level.FINE, "Refreshing {0} files in {1}", new Object[]{batch.size(), root}); // NOI18N
+            for (File dir : dirs) {
+                cache.getScannedFiles(dir, null); // Has side effect of updating the cache
+            }
+            cache.applyStatusBatch(GitCommand.getStatus(root, batch));
         }
     }
 }
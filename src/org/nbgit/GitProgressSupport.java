@@ -41,6 +41,7 @@
  */
 package org.nbgit;
 
+import java.io.File;
 import java.net.URISyntaxException;
 import java.util.logging.Level;
 import javax.swing.JComponent;
@@ -67,17 +68,20 @@ public abstract class GitProgressSupport implements Runnable, Cancellable {
     private OutputLogger logger;
     private String repositoryRoot;
     private RequestProcessor.Task task;
+    private File acquiredRoot;
 
     public RequestProcessor.Task start(RequestProcessor rp, String repositoryRoot, String displayName) {
         setDisplayName(displayName);
         this.repositoryRoot = repositoryRoot;
         startProgress();
         setProgressQueued();
+        acquireRepository();
         task = rp.post(this);
         task.addTaskListener(new TaskListener() {
 
             public void taskFinished(org.openide.util.Task task) {
                 delegate = null;
+                releaseRepository();
             }
         });
         return task;
@@ -93,8 +97,44 @@ public void setRepositoryRoot(String repositoryRoot) {
     }
 
     public void run() {
-        setProgress();
-        performIntern();
+        // The repository may have been created since the task was queued.
+        boolean acquired = acquireRepository();
+        try {
+            setProgress();
+            performIntern();
+        } finally {
+            if (acquired) {
+                releaseRepository();
+            }
+        }
+    }
+
+    /**
+     * Keep the repository open while the task is queued or running so it
+     * is not closed as idle in the middle of the operation.
+     *
+     * @return whether the repository was acquired by this call.
+     */
+    private synchronized boolean acquireRepository() {
+        if (acquiredRoot != null || repositoryRoot == null) {
+            return false;
+        }
+        File root = new File(repositoryRoot);
+        if (!root.isAbsolute() || !Git.getInstance().isAdministrative(new File(root, ".git"))) { // NOI18N
+            return false;
+        }
+        if (Git.getInstance().acquireRepository(root) == null) {
+            return false;
+        }
+        acquiredRoot = root;
+        return true;
+    }
+
+    private synchronized void releaseRepository() {
+        if (acquiredRoot != null) {
+            Git.getInstance().releaseRepository(acquiredRoot);
+            acquiredRoot = null;
+        }
     }
 
     protected void performIntern() {
@@ -118,10 +118,17 @@ public void propertyChange(PropertyChangeEvent event) {
         if (event.getPropertyName().equals(StatusCache.PROP_FILE_STATUS_CHANGED)) {
             StatusCache.ChangedEvent changedEvent = (StatusCache.ChangedEvent) event.getNewValue();
             fireStatusChanged(changedEvent.getFile());
+        } else if (event.getPropertyName().equals(StatusCache.PROP_FILES_STATUS_CHANGED)) {
+            StatusCache.BatchChangedEvent changedEvent = (StatusCache.BatchChangedEvent) event.getNewValue();
+            fireStatusChanged(changedEvent.getFiles());
         } else if (event.getPropertyName().equals(Git.PROP_ANNOTATIONS_CHANGED)) {
             fireAnnotationsChanged((Set<File>) event.getNewValue());
         } else if (event.getPropertyName().equals(Git.PROP_VERSIONED_FILES_CHANGED)) {
             fireVersionedFilesChanged();
+        } else if (event.getPropertyName().equals(Git.PROP_REPOSITORY_CLOSED)) {
+            File root = (File) event.getNewValue();
+            gitInterceptor.repositoryClosed(root);
+            gitAnnotator.repositoryClosed(root);
         }
     }
 }
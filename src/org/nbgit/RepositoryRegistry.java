@@ -0,0 +1,198 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2009 Jonas Fonseca <fonseca@diku.dk>
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common
+ * Development and Distribution License("CDDL") (collectively, the
+ * "License"). You may not use this file except in compliance with the
+ * License. You can obtain a copy of the License at
+ * http://www.netbeans.org/cddl-gplv2.html. See the License for the
+ * specific language governing permissions and limitations under the
+ * License.  When distributing the software, include this License Header
+ * Notice in each file.
+ *
+ * This particular file is subject to the "Classpath" exception as provided
+ * by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code. If applicable, add the following below the
+ * License Header, with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL
+ * or only the GPL Version 2, indicate your decision by adding
+ * "[Contributor] elects to include this software in this distribution
+ * under the [CDDL or GPL Version 2] license." If you do not indicate a
+ * single choice of license, a recipient has the option to distribute
+ * your version of this file under either the CDDL, the GPL Version 2 or
+ * to extend the choice of license to its licensees as provided above.
+ * However, if you add GPL Version 2 code and therefore, elected the GPL
+ * Version 2 license, then the option applies only if the new code is
+ * made subject to such option by the copyright holder.
+ */
+package org.nbgit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Keeps the JGit repositories opened by the module.
+ *
+ * Repositories are opened on first use and closed again once they have
+ * not been used for {@link #IDLE_TIMEOUT} milliseconds, nobody holds a
+ * reference acquired with {@link #acquire(File)} and no background job of
+ * the repository is pending or running. Closing a repository
+ * releases its pack files and also drops the caches derived from it, see
+ * {@link Git#repositoryClosed(File, Repository)}.
+ */
+class RepositoryRegistry {
+
+    static final long IDLE_TIMEOUT = 5 * 60 * 1000;
+    private static final int EVICTION_DELAY = 60 * 1000;
+    private final Map<File, Entry> entries = new ConcurrentHashMap<File, Entry>();
+    private final Git git;
+    private final RequestProcessor.Task evictionTask;
+    private boolean evictionScheduled;
+    private int evictions;
+
+    RepositoryRegistry(Git git) {
+        this.git = git;
+        evictionTask = new RequestProcessor("Git repository registry", 1).create(new Runnable() { // NOI18N
+
+            public void run() {
+                evictIdle(System.currentTimeMillis() - IDLE_TIMEOUT);
+            }
+        });
+    }
+
+    /**
+     * Get the repository of a working directory without holding on to
+     * it. The repository may be closed once it has been idle for a while,
+     * after which JGit reopens its files on demand.
+     *
+     * @param root of the working directory.
+     * @return the repository or null if it could not be opened.
+     */
+    Repository get(File root) {
+        Entry entry = getEntry(root);
+        if (entry == null) {
+            return null;
+        }
+        entry.lastUsed = System.currentTimeMillis();
+        return entry.repository;
+    }
+
+    /**
+     * Get the repository of a working directory and keep it open until
+     * {@link #release(File)} is called.
+     *
+     * @param root of the working directory.
+     * @return the repository or null if it could not be opened.
+     */
+    synchronized Repository acquire(File root) {
+        Entry entry = getEntry(root);
+        if (entry == null) {
+            return null;
+        }
+        entry.references++;
+        entry.repository.incrementOpen();
+        entry.lastUsed = System.currentTimeMillis();
+        return entry.repository;
+    }
+
+    synchronized void release(File root) {
+        Entry entry = entries.get(root);
+        if (entry == null || entry.references == 0) {
+            Git.LOG.log(Level.WARNING, "Repository released too often: {0}", root); // NOI18N
+            return;
+        }
+        entry.references--;
+        entry.repository.close();
+        entry.lastUsed = System.currentTimeMillis();
+    }
+
+    int getOpenCount() {
+        return entries.size();
+    }
+
+    synchronized int getEvictionCount() {
+        return evictions;
+    }
+
+    private Entry getEntry(File root) {
+        Entry entry = entries.get(root);
+        if (entry != null) {
+            return entry;
+        }
+        synchronized (this) {
+            entry = entries.get(root);
+            if (entry == null) {
+                try {
+                    Repository repository = new Repository(new File(root, Constants.DOT_GIT));
+                    entry = new Entry(repository);
+                    entries.put(root, entry);
+                } catch (IOException ex) {
+                    return null;
+                }
+                if (!evictionScheduled) {
+                    evictionScheduled = true;
+                    evictionTask.schedule(EVICTION_DELAY);
+                }
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Close all repositories which are not referenced and have not been
+     * used since the given time.
+     */
+    void evictIdle(long usedBefore) {
+        Map<File, Repository> closed = new HashMap<File, Repository>();
+        synchronized (this) {
+            for (Iterator<Map.Entry<File, Entry>> i = entries.entrySet().iterator(); i.hasNext();) {
+                Map.Entry<File, Entry> mapEntry = i.next();
+                Entry entry = mapEntry.getValue();
+                if (entry.references == 0 && entry.lastUsed < usedBefore &&
+                        !git.isRepositoryBusy(mapEntry.getKey())) {
+                    i.remove();
+                    closed.put(mapEntry.getKey(), entry.repository);
+                    evictions++;
+                }
+            }
+            evictionScheduled = !entries.isEmpty();
+            if (evictionScheduled) {
+                evictionTask.schedule(EVICTION_DELAY);
+            }
+        }
+        for (Map.Entry<File, Repository> mapEntry : closed.entrySet()) {
+            Git.LOG.log(Level.FINE, "Closing idle repository {0}", mapEntry.getKey()); // NOI18N
+            mapEntry.getValue().close();
+            git.repositoryClosed(mapEntry.getKey(), mapEntry.getValue());
+        }
+    }
+
+    private static class Entry {
+
+        private final Repository repository;
+        private int references;
+        private volatile long lastUsed;
+
+        Entry(Repository repository) {
+            this.repository = repository;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+}
@@ -0,0 +1,243 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2009 Jonas Fonseca <fonseca@diku.dk>
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common
+ * Development and Distribution License("CDDL") (collectively, the
+ * "License"). You may not use this file except in compliance with the
+ * License. You can obtain a copy of the License at
+ * http://www.netbeans.org/cddl-gplv2.html. See the License for the
+ * specific language governing permissions and limitations under the
+ * License.  When distributing the software, include this License Header
+ * Notice in each file.
+ *
+ * This particular file is subject to the "Classpath" exception as provided
+ * by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code. If applicable, add the following below the
+ * License Header, with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL
+ * or only the GPL Version 2, indicate your decision by adding
+ * "[Contributor] elects to include this software in this distribution
+ * under the [CDDL or GPL Version 2] license." If you do not indicate a
+ * single choice of license, a recipient has the option to distribute
+ * your version of this file under either the CDDL, the GPL Version 2 or
+ * to extend the choice of license to its licensees as provided above.
+ * However, if you add GPL Version 2 code and therefore, elected the GPL
+ * Version 2 license, then the option applies only if the new code is
+ * made subject to such option by the copyright holder.
+ */
+package org.nbgit;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Runs background jobs with one serialized lane per repository.
+ *
+ * Jobs of the same repository run one after the other in the order they
+ * were posted, while lanes of different repositories run in parallel on
+ * a shared processor with a bounded number of threads. Jobs for content
+ * visible in the UI are run before other jobs of the lane and the lane
+ * itself is given a higher priority. Posting a job which is already
+ * pending in the lane has no effect.
+ */
+class RepositoryScheduler {
+
+    private static final File NO_REPOSITORY = new File(""); // NOI18N
+    private final RequestProcessor processor;
+    private final Map<File, Lane> lanes = new HashMap<File, Lane>();
+
+    RepositoryScheduler(String name) {
+        int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        processor = new RequestProcessor(name, threads, true);
+    }
+
+    /**
+     * Post a job to the lane of a repository.
+     *
+     * @param root of the repository, may be null for unmanaged files.
+     * @param job to run.
+     * @param delay in milliseconds before the lane is run.
+     * @param visible whether the job updates content visible in the UI.
+     */
+    void post(File root, Runnable job, int delay, boolean visible) {
+        File key = root != null ? root : NO_REPOSITORY;
+        Lane lane;
+        do {
+            synchronized (lanes) {
+                lane = lanes.get(key);
+                if (lane == null) {
+                    lane = new Lane(key);
+                    lanes.put(key, lane);
+                }
+            }
+        } while (!lane.post(job, delay, visible));
+    }
+
+    /**
+     * Cancel all pending jobs of a repository and interrupt the running
+     * job, if any. Jobs posted afterwards start a new lane.
+     *
+     * @param root of the repository.
+     */
+    void cancel(File root) {
+        Lane lane;
+        synchronized (lanes) {
+            lane = lanes.remove(root != null ? root : NO_REPOSITORY);
+        }
+        if (lane != null) {
+            lane.cancel();
+        }
+    }
+
+    /**
+     * Check whether a repository has jobs pending or running.
+     *
+     * @param root of the repository.
+     */
+    boolean isBusy(File root) {
+        Lane lane;
+        synchronized (lanes) {
+            lane = lanes.get(root != null ? root : NO_REPOSITORY);
+        }
+        return lane != null && lane.isBusy();
+    }
+
+    /**
+     * Drop the lane of a repository unless it has jobs pending or
+     * running. Used when an idle repository is closed, unlike
+     * {@link #cancel(File)} it never interrupts work. Jobs posted
+     * afterwards start a new lane.
+     *
+     * @param root of the repository.
+     * @return whether the repository has no lane anymore.
+     */
+    boolean removeIdle(File root) {
+        synchronized (lanes) {
+            File key = root != null ? root : NO_REPOSITORY;
+            Lane lane = lanes.get(key);
+            if (lane != null && !lane.retire()) {
+                return false;
+            }
+            lanes.remove(key);
+            return true;
+        }
+    }
+
+    private class Lane implements Runnable {
+
+        private final File root;
+        private final RequestProcessor.Task task;
+        private final Set<Runnable> visibleJobs = new LinkedHashSet<Runnable>();
+        private final Set<Runnable> jobs = new LinkedHashSet<Runnable>();
+        private Thread thread;
+        private boolean scheduled;
+        private boolean cancelled;
+
+        Lane(File root) {
+            this.root = root;
+            this.task = processor.create(this);
+        }
+
+        /**
+         * @return false if the lane has been retired.
+         */
+        synchronized boolean post(Runnable job, int delay, boolean visible) {
+            if (cancelled) {
+                return false;
+            }
+            if (visible) {
+                jobs.remove(job);
+                visibleJobs.add(job);
+            } else if (!visibleJobs.contains(job)) {
+                jobs.add(job);
+            }
+            task.setPriority(visibleJobs.isEmpty() ? Thread.MIN_PRIORITY : Thread.NORM_PRIORITY);
+            if (!scheduled || task.getDelay() > delay) {
+                scheduled = true;
+                task.schedule(delay);
+            }
+            return true;
+        }
+
+        synchronized boolean isBusy() {
+            return scheduled || thread != null || !visibleJobs.isEmpty() || !jobs.isEmpty();
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            visibleJobs.clear();
+            jobs.clear();
+            task.cancel();
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        /**
+         * Stop accepting work if the lane is idle.
+         */
+        synchronized boolean retire() {
+            if (isBusy()) {
+                return false;
+            }
+            cancelled = true;
+            return true;
+        }
+
+        public void run() {
+            Runnable job;
+            synchronized (this) {
+                scheduled = false;
+                job = poll(visibleJobs);
+                if (job == null) {
+                    job = poll(jobs);
+                }
+                if (job == null || cancelled) {
+                    return;
+                }
+                thread = Thread.currentThread();
+            }
+            try {
+                job.run();
+            } catch (RuntimeException ex) {
+                Git.LOG.log(Level.WARNING, "Job failed for " + root, ex); // NOI18N
+            } finally {
+                synchronized (this) {
+                    thread = null;
+                    Thread.interrupted();
+                    if (!cancelled && !(visibleJobs.isEmpty() && jobs.isEmpty())) {
+                        // Yield to the other lanes between jobs.
+                        task.setPriority(visibleJobs.isEmpty() ? Thread.MIN_PRIORITY : Thread.NORM_PRIORITY);
+                        scheduled = true;
+                        task.schedule(0);
+                    }
+                }
+            }
+        }
+
+        private Runnable poll(Set<Runnable> set) {
+            Iterator<Runnable> iterator = set.iterator();
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            Runnable job = iterator.next();
+            iterator.remove();
+            return job;
+        }
+    }
+
+}
@@ -47,10 +47,16 @@
 import java.beans.PropertyChangeSupport;
 import java.io.File;
 import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
@@ -60,7 +66,6 @@
 import org.netbeans.modules.turbo.Turbo;
 import org.netbeans.modules.versioning.spi.VCSContext;
 import org.netbeans.modules.versioning.spi.VersioningSupport;
-import org.netbeans.modules.versioning.util.Utils;
 import org.openide.filesystems.FileSystem;
 import org.openide.filesystems.FileUtil;
 
@@ -77,10 +82,17 @@ public class StatusCache {
      * The New value is a ChangedEvent object (old StatusInfo object may be null)
      */
     public static final String PROP_FILE_STATUS_CHANGED = "status.changed"; // NOI18N
+    /**
+     * Indicates that status of several files changed at once.
+     * The New value is a BatchChangedEvent object.
+     */
+    public static final String PROP_FILES_STATUS_CHANGED = "status.changed.batch"; // NOI18N
     /**
      * A special map saying that no file inside the folder is managed.
      */
     private static final Map<File, StatusInfo> NOT_MANAGED_MAP = new NotManagedMap();
+    private static final int PREFETCH_LIMIT = 2000;
+    private static final int PREFETCH_CHUNK = 64;
     public static final File REPOSITORY_STATUS_UNKNOWN = null;  // Constant File objects that can be safely reused
     // Files that have a revision number cannot share StatusInfo objects
     private static final StatusInfo FILE_STATUS_EXCLUDED = new StatusInfo(StatusInfo.STATUS_NOTVERSIONED_EXCLUDED, false);
@@ -99,7 +111,10 @@ public class StatusCache {
     private final Turbo turbo;
     private final String FILE_STATUS_MAP = DiskMapTurboProvider.ATTR_STATUS_MAP;
     private DiskMapTurboProvider cacheProvider;
+    private Map<File, StatusInfo> modifiedIndexFiles;
+    private StatusTrie modifiedIndex;
     private Git git;
+    private final Map<File, Map<File, Map<File, StatusInfo>>> prefetchedStatus = new HashMap<File, Map<File, Map<File, StatusInfo>>>();
     private Set<FileSystem> filesystemsToRefresh;
 
     StatusCache(Git git) {
@@ -141,38 +156,16 @@ public File[] listFiles(File dir) {
      */
     public File[] listFiles(VCSContext context, int includeStatus) {
         Set<File> set = new HashSet<File>();
-        Map<File, StatusInfo> allFiles = cacheProvider.getAllModifiedValues();
-        if (allFiles == null) {
+        StatusTrie index = getModifiedIndex();
+        if (index == null) {
             Git.LOG.log(Level.FINE, "StatusCache: listFiles(): allFiles == null"); // NOI18N
             return new File[0];
         }
 
-        for (File file : allFiles.keySet()) {
-            StatusInfo info = allFiles.get(file);
-            if ((info.getStatus() & includeStatus) == 0) {
-                continue;
-            }
-            Set<File> roots = context.getRootFiles();
-            for (File root : roots) {
-                if (VersioningSupport.isFlat(root)) {
-                    if (file.equals(root) || file.getParentFile().equals(root)) {
-                        set.add(file);
-                        break;
-                    }
-                } else if (Utils.isAncestorOrEqual(root, file)) {
-                    set.add(file);
-                    break;
-                }
-            }
-        }
-        if (context.getExclusions().size() > 0) {
-            for (File excluded : context.getExclusions()) {
-                for (Iterator<File> j = set.iterator(); j.hasNext();) {
-                    if (Utils.isAncestorOrEqual(excluded, j.next())) {
-                        j.remove();
-                    }
-                }
-            }
+        Set<File> exclusions = getExclusions(context);
+        for (File root : context.getRootFiles()) {
+            boolean flat = VersioningSupport.isFlat(root);
+            index.collect(root, includeStatus, flat, true, exclusions, set);
         }
         return set.toArray(new File[set.size()]);
     }
@@ -189,25 +182,16 @@ public File[] listFiles(VCSContext context, int includeStatus) {
      */
     public File[] listFiles(File[] roots, int includeStatus) {
         Set<File> set = new HashSet<File>();
-        Map<File, StatusInfo> allFiles = cacheProvider.getAllModifiedValues();
+        StatusTrie index = getModifiedIndex();
+        if (index == null) {
+            return new File[0];
+        }
 
-        for (File file : allFiles.keySet()) {
-            StatusInfo info = allFiles.get(file);
-            if ((info.getStatus() & includeStatus) == 0) {
-                continue;
-            }
-            for (int j = 0; j < roots.length; j++) {
-                File root = roots[j];
-                if (VersioningSupport.isFlat(root)) {
-                    if (file.getParentFile().equals(root)) {
-                        set.add(file);
-                        break;
-                    }
-                } else if (Utils.isAncestorOrEqual(root, file)) {
-                    set.add(file);
-                    break;
-                }
-            }
+        Set<File> exclusions = Collections.emptySet();
+        for (int j = 0; j < roots.length; j++) {
+            File root = roots[j];
+            boolean flat = VersioningSupport.isFlat(root);
+            index.collect(root, includeStatus, flat, !flat, exclusions, set);
         }
         return set.toArray(new File[set.size()]);
     }
@@ -220,48 +204,46 @@ public File[] listFiles(File[] roots, int includeStatus) {
      * @return boolean true if this context contains at least one file with the includeStatus, false otherwise
      */
     public boolean containsFileOfStatus(VCSContext context, int includeStatus) {
-        Map<File, StatusInfo> allFiles = cacheProvider.getAllModifiedValues();
-        if (allFiles == null) {
+        StatusTrie index = getModifiedIndex();
+        if (index == null) {
             Git.LOG.log(Level.FINE, "containsFileOfStatus(): allFiles == null"); // NOI18N
             return false;
         }
 
-        Set<File> roots = context.getRootFiles();
-        Set<File> exclusions = context.getExclusions();
-        Set<File> setAllFiles = allFiles.keySet();
-        boolean bExclusions = exclusions != null && exclusions.size() > 0;
-        boolean bContainsFile = false;
-
-        for (File file : setAllFiles) {
-            StatusInfo info = allFiles.get(file);
-            if ((info.getStatus() & includeStatus) == 0) {
-                continue;
-            }
-            for (File root : roots) {
-                if (VersioningSupport.isFlat(root)) {
-                    if (file.equals(root) || file.getParentFile().equals(root)) {
-                        bContainsFile = true;
-                        break;
-                    }
-                } else if (Utils.isAncestorOrEqual(root, file)) {
-                    bContainsFile = true;
-                    break;
-                }
-            }
-            // Check it is not an excluded file
-            if (bContainsFile && bExclusions) {
-                for (File excluded : exclusions) {
-                    if (!Utils.isAncestorOrEqual(excluded, file)) {
-                        return true;
-                    }
-                }
-            } else if (bContainsFile) {
+        Set<File> exclusions = getExclusions(context);
+        for (File root : context.getRootFiles()) {
+            boolean flat = VersioningSupport.isFlat(root);
+            if (index.contains(root, includeStatus, flat, true, exclusions)) {
                 return true;
             }
         }
         return false;
     }
 
+    private static Set<File> getExclusions(VCSContext context) {
+        Set<File> exclusions = context.getExclusions();
+        if (exclusions == null) {
+            return Collections.emptySet();
+        }
+        return exclusions;
+    }
+
+    /**
+     * Get the trie indexing the modified files, rebuilding it when the
+     * set of modified files has changed since it was last built.
+     */
+    private synchronized StatusTrie getModifiedIndex() {
+        Map<File, StatusInfo> allFiles = cacheProvider.getAllModifiedValues();
+        if (allFiles == null) {
+            return null;
+        }
+        if (allFiles != modifiedIndexFiles) {
+            modifiedIndex = StatusTrie.create(allFiles);
+            modifiedIndexFiles = allFiles;
+        }
+        return modifiedIndex;
+    }
+
     /**
      * Determines the versioning status of a file. This method accesses disk and may block for a long period of time.
      *
@@ -431,7 +413,16 @@ public Map<File, StatusInfo> getScannedFiles(File dir, Map<File, StatusInfo> int
             return StatusCache.NOT_MANAGED_MAP;
         }
         dir = FileUtil.normalizeFile(dir);
-        files = scanFolder(dir, interestingFiles);
+        Map<File, StatusInfo> dirFiles = interestingFiles;
+        if (interestingFiles == null) {
+            File root = git.getTopmostManagedParent(dir);
+            Map<File, Map<File, StatusInfo>> prefetched = getPrefetchedStatus(root, dir);
+            if (prefetched != null) {
+                dirFiles = getInterestingFiles(prefetched, dir);
+                schedulePrefetch(root, prefetched, Collections.singleton(dir));
+            }
+        }
+        files = scanFolder(dir, dirFiles);
         assert files.containsKey(dir) == false;
         turbo.writeEntry(dir, FILE_STATUS_MAP, files);
         if (interestingFiles == null) {
@@ -445,6 +436,147 @@ public Map<File, StatusInfo> getScannedFiles(File dir, Map<File, StatusInfo> int
         return files;
     }
 
+    private Map<File, Map<File, StatusInfo>> getPrefetchedStatus(File root, File dir) {
+        if (root == null || git.isAdministrative(dir) || GitUtils.isPartOfGitMetadata(dir)) {
+            return null;
+        }
+        return GitCommand.getInterestingStatusByDirectory(root);
+    }
+
+    private static Map<File, StatusInfo> getInterestingFiles(Map<File, Map<File, StatusInfo>> prefetched, File dir) {
+        Map<File, StatusInfo> files = prefetched.get(dir);
+        return files != null ? files : Collections.<File, StatusInfo>emptyMap();
+    }
+
+    /**
+     * Fills the status maps of all directories visited by a repository
+     * status walk in the background, so later lookups in the repository
+     * are cache hits. Only done once for each walk. The directories are
+     * scanned in chunks posted one after the other, so jobs for visible
+     * content of the repository can run in between. Directories below the
+     * requested ones come first, shallow directories before deep ones.
+     */
+    private void schedulePrefetch(final File root, final Map<File, Map<File, StatusInfo>> prefetched,
+            Collection<File> requested) {
+        synchronized (prefetchedStatus) {
+            if (prefetchedStatus.get(root) == prefetched) {
+                return;
+            }
+            prefetchedStatus.put(root, prefetched);
+        }
+        List<File> dirs = new ArrayList<File>(prefetched.keySet());
+        Collections.sort(dirs, new PrefetchOrder(requested));
+        postPrefetch(root, prefetched, dirs.subList(0, Math.min(dirs.size(), PREFETCH_LIMIT)), 0);
+    }
+
+    /**
+     * Forget the status walk prefetched for a repository which has been
+     * closed. Pending prefetch chunks of the walk will be skipped.
+     *
+     * @param root of the closed repository
+     */
+    void repositoryClosed(File root) {
+        synchronized (prefetchedStatus) {
+            prefetchedStatus.remove(root);
+        }
+    }
+
+    private void postPrefetch(final File root, final Map<File, Map<File, StatusInfo>> prefetched,
+            final List<File> dirs, final int start) {
+        git.getScheduler().post(root, new Runnable() {
+
+            public void run() {
+                prefetch(root, prefetched, dirs, start);
+            }
+        }, 0, false);
+    }
+
+    private void prefetch(File root, Map<File, Map<File, StatusInfo>> prefetched, List<File> dirs, int start) {
+        synchronized (prefetchedStatus) {
+            if (prefetchedStatus.get(root) != prefetched) {
+                return; // A newer walk has been made
+            }
+        }
+        List<ChangedEvent> events = new ArrayList<ChangedEvent>();
+        int end = Math.min(dirs.size(), start + PREFETCH_CHUNK);
+        for (int i = start; i < end; i++) {
+            if (Thread.interrupted()) {
+                return;
+            }
+            File dir = dirs.get(i);
+            if (turbo.readEntry(dir, FILE_STATUS_MAP) != null || !dir.exists()) {
+                continue;
+            }
+            Map<File, StatusInfo> interesting = prefetched.get(dir);
+            dir = FileUtil.normalizeFile(dir);
+            Map<File, StatusInfo> files = scanFolder(dir, interesting);
+            turbo.writeEntry(dir, FILE_STATUS_MAP, files);
+            for (Map.Entry<File, StatusInfo> file : files.entrySet()) {
+                StatusInfo info = file.getValue();
+                if ((info.getStatus() & (StatusInfo.STATUS_LOCAL_CHANGE | StatusInfo.STATUS_NOTVERSIONED_EXCLUDED)) != 0) {
+                    events.add(new ChangedEvent(file.getKey(), null, info));
+                }
+            }
+        }
+        if (!events.isEmpty()) {
+            listenerSupport.firePropertyChange(PROP_FILES_STATUS_CHANGED, null, new BatchChangedEvent(events));
+        }
+        if (end < dirs.size()) {
+            postPrefetch(root, prefetched, dirs, end);
+        } else {
+            Git.LOG.log(Level.FINE, "Prefetched status of {0} folders in {1}", new Object[]{dirs.size(), root}); // NOI18N
+        }
+    }
+
+    /**
+     * Scans several directories of a repository which are not cached yet.
+     * The status of all of them is computed in one pass and a single
+     * {@link #PROP_FILES_STATUS_CHANGED} event is fired for the files
+     * with an interesting status.
+     *
+     * @param root of the repository
+     * @param dirs to scan
+     */
+    public void scanFolders(File root, Collection<File> dirs) {
+        List<File> toScan = new ArrayList<File>(dirs.size());
+        for (File dir : dirs) {
+            if (turbo.readEntry(dir, FILE_STATUS_MAP) != null) {
+                continue;
+            }
+            if (dir.exists()) {
+                toScan.add(dir);
+            } else {
+                getScannedFiles(dir, null);
+            }
+        }
+        if (toScan.isEmpty()) {
+            return;
+        }
+        Map<File, Map<File, StatusInfo>> prefetched = GitCommand.getInterestingStatusByDirectory(root);
+        Map<File, StatusInfo> interestingFiles = null;
+        if (prefetched == null) {
+            interestingFiles = GitCommand.getInterestingStatus(root, toScan);
+        } else {
+            schedulePrefetch(root, prefetched, toScan);
+        }
+        List<ChangedEvent> events = new ArrayList<ChangedEvent>();
+        for (File dir : toScan) {
+            if (prefetched != null) {
+                interestingFiles = getInterestingFiles(prefetched, FileUtil.normalizeFile(dir));
+            }
+            Map<File, StatusInfo> files = getScannedFiles(dir, interestingFiles);
+            for (Map.Entry<File, StatusInfo> entry : files.entrySet()) {
+                StatusInfo info = entry.getValue();
+                if ((info.getStatus() & (StatusInfo.STATUS_LOCAL_CHANGE | StatusInfo.STATUS_NOTVERSIONED_EXCLUDED)) != 0) {
+                    events.add(new ChangedEvent(entry.getKey(), null, info));
+                }
+            }
+        }
+        if (!events.isEmpty()) {
+            listenerSupport.firePropertyChange(PROP_FILES_STATUS_CHANGED, null, new BatchChangedEvent(events));
+        }
+    }
+
     public void refreshFileStatus(File file, StatusInfo fi, Map<File, StatusInfo> interestingFiles) {
         refreshFileStatus(file, fi, interestingFiles, false);
     }
@@ -457,12 +589,130 @@ public void refreshFileStatus(File file, StatusInfo fi, Map<File, StatusInfo> in
         if (dir == null) {
             return;
         }
-        Map<File, StatusInfo> files = getScannedFiles(dir, interestingFiles);
+        DirectoryUpdate update = openDirectory(dir, interestingFiles);
+        if (update != null) {
+            refreshFileStatus(update, file, fi, interestingFiles == null, alwaysFireEvent);
+            update.commit();
+            for (ChangedEvent event : update.getEvents()) {
+                listenerSupport.firePropertyChange(PROP_FILE_STATUS_CHANGED, null, event);
+            }
+        }
+    }
+
+    /**
+     * Refreshes the status of many files at once. The files are grouped
+     * by directory so each directory map is read and stored only once,
+     * and a single {@link #PROP_FILES_STATUS_CHANGED} event is fired for
+     * all files whose status changed.
+     *
+     * <p>Directories not cached yet are scanned using the statuses of the
+     * batch, so the batch should hold all interesting files below them.
+     *
+     * @param statuses new status of each file
+     */
+    public void applyStatusBatch(Map<File, StatusInfo> statuses) {
+        Map<File, Map<File, StatusInfo>> filesByDir = new LinkedHashMap<File, Map<File, StatusInfo>>();
+        for (Map.Entry<File, StatusInfo> entry : statuses.entrySet()) {
+            File dir = entry.getKey().getParentFile();
+            if (dir == null || entry.getValue() == null) {
+                continue;
+            }
+            Map<File, StatusInfo> dirFiles = filesByDir.get(dir);
+            if (dirFiles == null) {
+                dirFiles = new HashMap<File, StatusInfo>();
+                filesByDir.put(dir, dirFiles);
+            }
+            dirFiles.put(entry.getKey(), entry.getValue());
+        }
+        List<ChangedEvent> events = new ArrayList<ChangedEvent>();
+        for (Map.Entry<File, Map<File, StatusInfo>> entry : filesByDir.entrySet()) {
+            DirectoryUpdate update = openDirectory(entry.getKey(), entry.getValue());
+            if (update == null) {
+                continue;
+            }
+            for (Map.Entry<File, StatusInfo> file : entry.getValue().entrySet()) {
+                refreshFileStatus(update, file.getKey(), file.getValue(), true, false);
+            }
+            update.commit();
+            events.addAll(update.getEvents());
+        }
+        if (!events.isEmpty()) {
+            listenerSupport.firePropertyChange(PROP_FILES_STATUS_CHANGED, null, new BatchChangedEvent(events));
+        }
+    }
+
+    /**
+     * Refreshes cached files which no longer show up in the status of
+     * their repository, typically because they were deleted or became up
+     * to date. Each file is checked like {@link #refresh(File, File)}, but
+     * the files are grouped by directory so each directory map is copied
+     * and stored only once, and a single {@link #PROP_FILES_STATUS_CHANGED}
+     * event is fired.
+     *
+     * @param files to refresh
+     */
+    public void refreshStale(Collection<File> files) {
+        Map<File, List<File>> filesByDir = new LinkedHashMap<File, List<File>>();
+        for (File file : files) {
+            File dir = file.getParentFile();
+            if (dir == null) {
+                continue;
+            }
+            List<File> dirFiles = filesByDir.get(dir);
+            if (dirFiles == null) {
+                dirFiles = new ArrayList<File>();
+                filesByDir.put(dir, dirFiles);
+            }
+            dirFiles.add(file);
+        }
+        List<ChangedEvent> events = new ArrayList<ChangedEvent>();
+        List<File> recursive = new ArrayList<File>();
+        for (Map.Entry<File, List<File>> entry : filesByDir.entrySet()) {
+            DirectoryUpdate update = openDirectory(entry.getKey(), null);
+            if (update == null) {
+                continue;
+            }
+            for (File file : entry.getValue()) {
+                StatusInfo current = update.get(file);
+                StatusInfo fi = createFileInformation(file, true);
+                if (StatusInfo.equivalent(fi, current)) {
+                    continue;
+                }
+                // do not include uptodate files into cache, missing directories must be included
+                if (current == null && !fi.isDirectory() && fi.getStatus() == StatusInfo.STATUS_VERSIONED_UPTODATE) {
+                    continue;
+                }
+                file = FileUtil.normalizeFile(file);
+                update.set(file, fi);
+                update.fire(file, current, fi);
+                if (file.isDirectory() && needRecursiveRefresh(fi, current)) {
+                    recursive.add(file);
+                }
+            }
+            update.commit();
+            events.addAll(update.getEvents());
+        }
+        if (!events.isEmpty()) {
+            listenerSupport.firePropertyChange(PROP_FILES_STATUS_CHANGED, null, new BatchChangedEvent(events));
+        }
+        for (File dir : recursive) {
+            File[] content = listFiles(dir); // Has side effect of updating the cache
+            for (int i = 0; i < content.length; i++) {
+                refresh(content[i], StatusCache.REPOSITORY_STATUS_UNKNOWN);
+            }
+        }
+    }
 
+    private DirectoryUpdate openDirectory(File dir, Map<File, StatusInfo> interestingFiles) {
+        Map<File, StatusInfo> files = getScannedFiles(dir, interestingFiles);
         if (files == null || files == StatusCache.NOT_MANAGED_MAP) {
-            return;
+            return null;
         }
-        StatusInfo current = files.get(file);
+        return new DirectoryUpdate(FileUtil.normalizeFile(dir), files);
+    }
+
+    private void refreshFileStatus(DirectoryUpdate update, File file, StatusInfo fi, boolean notify, boolean alwaysFireEvent) {
+        StatusInfo current = update.get(file);
         if (StatusInfo.equivalent(fi, current)) {
             if (StatusInfo.equivalent(FILE_STATUS_NEWLOCALLY, fi)) {
                 if (Excludes.isIgnored(file)) {
@@ -487,25 +737,13 @@ public void refreshFileStatus(File file, StatusInfo fi, Map<File, StatusInfo> in
             }
         }
         file = FileUtil.normalizeFile(file);
-        dir = FileUtil.normalizeFile(dir);
-        Map<File, StatusInfo> newFiles = new HashMap<File, StatusInfo>(files);
-        if (fi.getStatus() == StatusInfo.STATUS_UNKNOWN) {
-            newFiles.remove(file);
-            turbo.writeEntry(file, FILE_STATUS_MAP, null);  // remove mapping in case of directories
-        } else if (fi.getStatus() == StatusInfo.STATUS_VERSIONED_UPTODATE && file.isFile()) {
-            newFiles.remove(file);
-        } else {
-            newFiles.put(file, fi);
-        }
-        assert files.containsKey(dir) == false;
-        turbo.writeEntry(dir, FILE_STATUS_MAP, newFiles);
+        update.set(file, fi);
 
-        if (interestingFiles == null) {
-            fireFileStatusChanged(file, current, fi);
+        if (notify) {
+            update.fire(file, current, fi);
         } else if (alwaysFireEvent) {
-            fireFileStatusChanged(file, null, fi);
+            update.fire(file, null, fi);
         }
-        return;
     }
 
     private boolean needRecursiveRefresh(StatusInfo fi, StatusInfo current) {
@@ -547,6 +785,7 @@ public void refreshCached(File root) {
         if (repository == null) {
             return;
         }
+        GitCommand.invalidateStatus(repository);
         File roots[] = new File[1];
         roots[0] = root;
         File[] files = listFiles(roots, ~0);
@@ -556,16 +795,20 @@ public void refreshCached(File root) {
         Map<File, StatusInfo> allFiles;
         try {
             allFiles = GitCommand.getAllStatus(repository, root);
+            Map<File, StatusInfo> statuses = new LinkedHashMap<File, StatusInfo>(files.length * 2);
+            List<File> staleFiles = new ArrayList<File>();
             for (int i = 0; i < files.length; i++) {
                 File file = files[i];
                 StatusInfo fi = allFiles.get(file);
                 if (fi == null) // We have a file in the cache which seems to have disappeared
                 {
-                    refresh(file, StatusCache.REPOSITORY_STATUS_UNKNOWN);
+                    staleFiles.add(file);
                 } else {
-                    refreshFileStatus(file, fi, null);
+                    statuses.put(file, fi);
                 }
             }
+            refreshStale(staleFiles);
+            applyStatusBatch(statuses);
         } catch (IOException ex) {
             Git.LOG.log(Level.FINE, "refreshCached() file: {0} {1} { 2} ", new Object[]{repository.getAbsolutePath(), root.getAbsolutePath(), ex.toString()}); // NOI18N
         }
@@ -697,12 +940,14 @@ private Map<File, StatusInfo> scanFolder(File dir, Map<File, StatusInfo> interes
         if (interestingFiles == null) {
             return folderFiles;
         }
-        for (File file : files) {
+        BitSet ignored = Excludes.classifyChildren(dir, files);
+        for (int i = 0; i < files.length; i++) {
+            File file = files[i];
             if (GitUtils.isPartOfGitMetadata(file)) {
                 continue;
             }
             if (file.isDirectory()) {
-                if (excludeFile(file)) {
+                if (git.isAdministrative(file) || ignored.get(i)) {
                     Git.LOG.log(Level.FINE, "scanFolder Mng Dir {0}: exclude Dir: {1}", // NOI18N
                             new Object[]{dir.getAbsolutePath(), file.getName()});
                     folderFiles.put(file, FILE_STATUS_EXCLUDED_DIRECTORY); // Excluded dir
@@ -713,10 +958,10 @@ private Map<File, StatusInfo> scanFolder(File dir, Map<File, StatusInfo> interes
                 }
             } else {
                 StatusInfo fi = interestingFiles.get(file);
-                if (fi == null) // We have removed -i from GitCommand.getInterestingFiles
+                if (fi == null && ignored.get(i)) // We have removed -i from GitCommand.getInterestingFiles
                 // so we might have a file we should be ignoring
                 {
-                    fi = createFileInformation(file, false);
+                    fi = FILE_STATUS_EXCLUDED;
                 }
                 if (fi != null && fi.getStatus() != StatusInfo.STATUS_VERSIONED_UPTODATE) {
                     folderFiles.put(file, fi);
@@ -741,6 +986,58 @@ public void removePropertyChangeListener(PropertyChangeListener listener) {
         listenerSupport.removePropertyChangeListener(listener);
     }
 
+    /**
+     * Changes to the status map of one directory. The cached map is copied
+     * on the first change only, so any number of files in the directory
+     * are updated with one copy and stored with one write. Change events
+     * are collected to be fired once the new map is stored.
+     */
+    private class DirectoryUpdate {
+
+        private final File dir;
+        private final Map<File, StatusInfo> files;
+        private Map<File, StatusInfo> newFiles;
+        private final List<ChangedEvent> events = new ArrayList<ChangedEvent>();
+
+        DirectoryUpdate(File dir, Map<File, StatusInfo> files) {
+            this.dir = dir;
+            this.files = files;
+        }
+
+        StatusInfo get(File file) {
+            return newFiles != null ? newFiles.get(file) : files.get(file);
+        }
+
+        void set(File file, StatusInfo fi) {
+            if (newFiles == null) {
+                newFiles = new HashMap<File, StatusInfo>(files);
+            }
+            if (fi.getStatus() == StatusInfo.STATUS_UNKNOWN) {
+                newFiles.remove(file);
+                turbo.writeEntry(file, FILE_STATUS_MAP, null);  // remove mapping in case of directories
+            } else if (fi.getStatus() == StatusInfo.STATUS_VERSIONED_UPTODATE && file.isFile()) {
+                newFiles.remove(file);
+            } else {
+                newFiles.put(file, fi);
+            }
+        }
+
+        void fire(File file, StatusInfo oldInfo, StatusInfo newInfo) {
+            events.add(new ChangedEvent(file, oldInfo, newInfo));
+        }
+
+        List<ChangedEvent> getEvents() {
+            return events;
+        }
+
+        void commit() {
+            if (newFiles != null) {
+                assert newFiles.containsKey(dir) == false;
+                turbo.writeEntry(dir, FILE_STATUS_MAP, newFiles);
+            }
+        }
+    }
+
     private void fireFileStatusChanged(File file, StatusInfo oldInfo, StatusInfo newInfo) {
         listenerSupport.firePropertyChange(PROP_FILE_STATUS_CHANGED, null, new ChangedEvent(file, oldInfo, newInfo));
     }
@@ -769,6 +1066,51 @@ private boolean excludeFile(File file) {
         return git.isAdministrative(file) || Excludes.isIgnored(file);
     }
 
+    /**
+     * Orders prefetched directories by their distance to the ones
+     * requested: directories below a requested one first, then by depth.
+     */
+    private static final class PrefetchOrder implements Comparator<File> {
+
+        private final Collection<String> requested = new ArrayList<String>();
+        private final Map<File, Integer> ranks = new HashMap<File, Integer>();
+
+        PrefetchOrder(Collection<File> dirs) {
+            for (File dir : dirs) {
+                requested.add(dir.getPath());
+            }
+        }
+
+        public int compare(File a, File b) {
+            int diff = rank(a) - rank(b);
+            return diff != 0 ? diff : a.getPath().compareTo(b.getPath());
+        }
+
+        private int rank(File dir) {
+            Integer rank = ranks.get(dir);
+            if (rank == null) {
+                String path = dir.getPath();
+                int depth = 0;
+                for (int i = path.indexOf(File.separatorChar); i != -1; i = path.indexOf(File.separatorChar, i + 1)) {
+                    depth++;
+                }
+                rank = isRequested(path) ? depth : Short.MAX_VALUE + depth;
+                ranks.put(dir, rank);
+            }
+            return rank;
+        }
+
+        private boolean isRequested(String path) {
+            for (String dir : requested) {
+                if (path.startsWith(dir) &&
+                        (path.length() == dir.length() || path.charAt(dir.length()) == File.separatorChar)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
     private static final class NotManagedMap extends AbstractMap<File, StatusInfo> {
 
         public Set<Entry<File, StatusInfo>> entrySet() {
@@ -800,4 +1142,27 @@ public StatusInfo getNewInfo() {
             return newInfo;
         }
     }
+
+    public static class BatchChangedEvent {
+
+        private List<ChangedEvent> events;
+        private Set<File> files;
+
+        public BatchChangedEvent(List<ChangedEvent> events) {
+            this.events = Collections.unmodifiableList(events);
+            files = new HashSet<File>(events.size() * 2);
+            for (ChangedEvent event : events) {
+                files.add(event.getFile());
+            }
+            files = Collections.unmodifiableSet(files);
+        }
+
+        public List<ChangedEvent> getEvents() {
+            return events;
+        }
+
+        public Set<File> getFiles() {
+            return files;
+        }
+    }
 }
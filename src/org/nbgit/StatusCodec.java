@@ -0,0 +1,325 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2009 Jonas Fonseca <fonseca@diku.dk>
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common
+ * Development and Distribution License("CDDL") (collectively, the
+ * "License"). You may not use this file except in compliance with the
+ * License. You can obtain a copy of the License at
+ * http://www.netbeans.org/cddl-gplv2.html. See the License for the
+ * specific language governing permissions and limitations under the
+ * License.  When distributing the software, include this License Header
+ * Notice in each file.
+ *
+ * This particular file is subject to the "Classpath" exception as provided
+ * by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code. If applicable, add the following below the
+ * License Header, with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL
+ * or only the GPL Version 2, indicate your decision by adding
+ * "[Contributor] elects to include this software in this distribution
+ * under the [CDDL or GPL Version 2] license." If you do not indicate a
+ * single choice of license, a recipient has the option to distribute
+ * your version of this file under either the CDDL, the GPL Version 2 or
+ * to extend the choice of license to its licensees as provided above.
+ * However, if you add GPL Version 2 code and therefore, elected the GPL
+ * Version 2 license, then the option applies only if the new code is
+ * made subject to such option by the copyright holder.
+ */
+package org.nbgit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary encoding of the status maps kept by {@link DiskMapTurboProvider}.
+ *
+ * <p>Keys are directory paths stored relative to one of a table of root
+ * paths, usually repository roots: a varint holding the root number plus
+ * one, or zero for an absolute path, followed by the UTF-8 encoded path.
+ *
+ * <p>Values hold the number of files followed by the files sorted by name.
+ * Each name is stored as the length of the prefix it shares with the
+ * previous name and the UTF-8 encoded remainder. The status and the
+ * directory flag of a file share one varint: since statuses are single
+ * flags the flag's bit index is stored, keeping the varint to one byte.
+ * Other statuses are escaped and follow as a separate varint. All lengths
+ * are varints.
+ */
+final class StatusCodec {
+
+    /** Version of the encoding, bump when changing the format. */
+    static final int VERSION = 3;
+    private static final String UTF_8 = "UTF-8"; // NOI18N
+    private static final byte[] ROOTS_KEY = new byte[0];
+    /** Status code for statuses that are not a single flag. */
+    private static final int RAW_STATUS = 33;
+    private final List<String> roots = new ArrayList<String>();
+
+    /**
+     * Get the key under which the root table is stored.
+     */
+    public byte[] getRootsKey() {
+        return ROOTS_KEY;
+    }
+
+    public boolean isRootsKey(byte[] key) {
+        return key.length == 0;
+    }
+
+    public void readRoots(byte[] value) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(value);
+        roots.clear();
+        try {
+            for (int count = readVarint(buffer); count > 0; count--) {
+                roots.add(readString(buffer));
+            }
+        } catch (BufferUnderflowException e) {
+            roots.clear();
+            throw new IOException("Corrupt root table"); // NOI18N
+        }
+    }
+
+    public byte[] writeRoots() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, roots.size());
+        for (String root : roots) {
+            writeString(out, root);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Check whether a directory is below one of the known roots.
+     */
+    public boolean hasRoot(String dirPath) {
+        return findRoot(dirPath) >= 0;
+    }
+
+    /**
+     * Add a root to the table.
+     *
+     * @return true if the root was not yet known.
+     */
+    public boolean addRoot(String root) {
+        if (roots.contains(root)) {
+            return false;
+        }
+        roots.add(root);
+        return true;
+    }
+
+    public byte[] encodeKey(String dirPath) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(dirPath.length() + 2);
+        int root = findRoot(dirPath);
+        if (root < 0) {
+            writeVarint(out, 0);
+            writeRaw(out, dirPath.getBytes(UTF_8));
+        } else {
+            String rootPath = roots.get(root);
+            int start = rootPath.length();
+            if (start < dirPath.length() && dirPath.charAt(start) == File.separatorChar) {
+                start++;
+            }
+            writeVarint(out, root + 1);
+            writeRaw(out, dirPath.substring(start).getBytes(UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    public String decodeKey(byte[] key) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(key);
+        try {
+            int root = readVarint(buffer) - 1;
+            String path = new String(key, buffer.position(), buffer.remaining(), UTF_8);
+            if (root < 0) {
+                return path;
+            }
+            if (root >= roots.size()) {
+                throw new IOException("Unknown root " + root); // NOI18N
+            }
+            String rootPath = roots.get(root);
+            if (path.length() == 0) {
+                return rootPath;
+            }
+            if (rootPath.endsWith(File.separator)) {
+                return rootPath + path;
+            }
+            return rootPath + File.separatorChar + path;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Corrupt key"); // NOI18N
+        }
+    }
+
+    public byte[] encodeValue(Map<File, StatusInfo> map) throws IOException {
+        String[] names = new String[map.size()];
+        StatusInfo[] infos = new StatusInfo[names.length];
+        Map<String, StatusInfo> byName = new HashMap<String, StatusInfo>(names.length * 2);
+        int count = 0;
+        for (Map.Entry<File, StatusInfo> entry : map.entrySet()) {
+            names[count] = entry.getKey().getName();
+            byName.put(names[count], entry.getValue());
+            count++;
+        }
+        Arrays.sort(names);
+        for (int i = 0; i < count; i++) {
+            infos[i] = byName.get(names[i]);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8 + count * 12);
+        writeVarint(out, count);
+        String previous = ""; // NOI18N
+        for (int i = 0; i < count; i++) {
+            String name = names[i];
+            int shared = 0;
+            int max = Math.min(previous.length(), name.length());
+            while (shared < max && previous.charAt(shared) == name.charAt(shared)) {
+                shared++;
+            }
+            // Never split a surrogate pair between prefix and remainder
+            if (shared > 0 && Character.isHighSurrogate(name.charAt(shared - 1))) {
+                shared--;
+            }
+            writeVarint(out, shared);
+            writeBytes(out, name.substring(shared).getBytes(UTF_8));
+            int status = infos[i].getStatus();
+            int code = encodeStatus(status);
+            writeVarint(out, (code << 1) | (infos[i].isDirectory() ? 1 : 0));
+            if (code == RAW_STATUS) {
+                writeVarint(out, status);
+            }
+            previous = name;
+        }
+        return out.toByteArray();
+    }
+
+    public Map<File, StatusInfo> decodeValue(byte[] value, String dirPath) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(value);
+        try {
+            int count = readVarint(buffer);
+            // Each entry takes at least three bytes
+            if (count < 0 || count > buffer.remaining() / 3) {
+                throw new IOException("Corrupt status entry"); // NOI18N
+            }
+            Map<File, StatusInfo> map = new HashMap<File, StatusInfo>(count * 2);
+            String previous = ""; // NOI18N
+            while (count-- > 0) {
+                int shared = readVarint(buffer);
+                if (shared < 0 || shared > previous.length()) {
+                    throw new IOException("Corrupt status entry"); // NOI18N
+                }
+                String name = previous.substring(0, shared) + readString(buffer);
+                int code = readVarint(buffer);
+                int status = code >>> 1 == RAW_STATUS ? readVarint(buffer) : decodeStatus(code >>> 1);
+                map.put(new File(dirPath, name), new StatusInfo(status, (code & 1) != 0));
+                previous = name;
+            }
+            return map;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Corrupt status entry"); // NOI18N
+        }
+    }
+
+    /*
+     * Zero for no status, the bit index plus one for single flags.
+     */
+    private static int encodeStatus(int status) {
+        if (status == 0) {
+            return 0;
+        }
+        if ((status & (status - 1)) != 0) {
+            return RAW_STATUS;
+        }
+        return Integer.numberOfTrailingZeros(status) + 1;
+    }
+
+    private static int decodeStatus(int code) throws IOException {
+        if (code == 0) {
+            return 0;
+        }
+        if (code > 32) {
+            throw new IOException("Corrupt status " + code); // NOI18N
+        }
+        return 1 << (code - 1);
+    }
+
+    private int findRoot(String dirPath) {
+        int found = -1;
+        int foundLength = -1;
+        for (int i = 0; i < roots.size(); i++) {
+            String root = roots.get(i);
+            if (root.length() > foundLength && isBelow(dirPath, root)) {
+                found = i;
+                foundLength = root.length();
+            }
+        }
+        return found;
+    }
+
+    static boolean isBelow(String path, String root) {
+        if (!path.startsWith(root)) {
+            return false;
+        }
+        return path.length() == root.length() || root.endsWith(File.separator) ||
+                path.charAt(root.length()) == File.separatorChar;
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String string) throws IOException {
+        writeBytes(out, string.getBytes(UTF_8));
+    }
+
+    private static void writeBytes(ByteArrayOutputStream out, byte[] bytes) {
+        writeVarint(out, bytes.length);
+        writeRaw(out, bytes);
+    }
+
+    private static void writeRaw(ByteArrayOutputStream out, byte[] bytes) {
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = readVarint(buffer);
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF_8);
+        buffer.position(buffer.position() + length);
+        return string;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new BufferUnderflowException();
+    }
+
+}
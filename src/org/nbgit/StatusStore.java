@@ -0,0 +1,499 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2009 Jonas Fonseca <fonseca@diku.dk>
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common
+ * Development and Distribution License("CDDL") (collectively, the
+ * "License"). You may not use this file except in compliance with the
+ * License. You can obtain a copy of the License at
+ * http://www.netbeans.org/cddl-gplv2.html. See the License for the
+ * specific language governing permissions and limitations under the
+ * License.  When distributing the software, include this License Header
+ * Notice in each file.
+ *
+ * This particular file is subject to the "Classpath" exception as provided
+ * by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code. If applicable, add the following below the
+ * License Header, with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL
+ * or only the GPL Version 2, indicate your decision by adding
+ * "[Contributor] elects to include this software in this distribution
+ * under the [CDDL or GPL Version 2] license." If you do not indicate a
+ * single choice of license, a recipient has the option to distribute
+ * your version of this file under either the CDDL, the GPL Version 2 or
+ * to extend the choice of license to its licensees as provided above.
+ * However, if you add GPL Version 2 code and therefore, elected the GPL
+ * Version 2 license, then the option applies only if the new code is
+ * made subject to such option by the copyright holder.
+ */
+package org.nbgit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Single file key/value store backed by a memory mapped file. Keys and
+ * values are byte arrays whose encoding is left to the user of the store.
+ *
+ * <p>The file starts with a header, followed by an open addressing hash
+ * index and the record area. Each index slot holds the hash of a key and
+ * the offset of its record. Records are allocated with some slack so that
+ * most updates can be done in place; a record which has outgrown its space
+ * is moved to the end of the record area. The space left behind is
+ * reclaimed by compacting the store once it makes up a large part of it.
+ *
+ * <p>If the file cannot be mapped, the store is kept in memory only.
+ */
+class StatusStore {
+
+    private static final int MAGIC = 0x4e424753; // NBGS
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_CAPACITY = 8;
+    private static final int HEADER_COUNT = 12;
+    private static final int HEADER_USED = 16;
+    private static final int HEADER_END = 20;
+    private static final int HEADER_GARBAGE = 24;
+    private static final int HEADER_SIZE = 32;
+    private static final int SLOT_SIZE = 8;
+    private static final int SLOT_EMPTY = 0;
+    private static final int SLOT_DELETED = -1;
+    private static final int RECORD_HEADER_SIZE = 12;
+    private static final int RECORD_ALIGNMENT = 32;
+    private static final int MIN_CAPACITY = 1024;
+    private static final int MIN_COMPACT_GARBAGE = 1 << 20;
+    private final File file;
+    private final int version;
+    private RandomAccessFile raf;
+    private ByteBuffer buffer;
+    private int capacity;
+    private int count;
+    private int used;
+    private int end;
+    private int garbage;
+
+    private StatusStore(File file, int version) {
+        this.file = file;
+        this.version = version;
+    }
+
+    /**
+     * Open a store. The store is emptied if the file does not exist or
+     * was written by another version of the store format.
+     *
+     * @param file to map, or null to create a store in memory.
+     * @param version of the format of the stored values.
+     */
+    public static StatusStore open(File file, int version) {
+        StatusStore store = new StatusStore(file, version);
+        store.open();
+        return store;
+    }
+
+    private void open() {
+        if (file != null) {
+            try {
+                raf = new RandomAccessFile(file, "rw"); // NOI18N
+                long length = raf.length();
+                if (length >= HEADER_SIZE && length <= Integer.MAX_VALUE) {
+                    buffer = map((int) length);
+                    if (load()) {
+                        return;
+                    }
+                    Git.LOG.log(Level.INFO, "Resetting status store {0}", file); // NOI18N
+                }
+            } catch (IOException ex) {
+                Git.LOG.log(Level.INFO, "Keeping status store in memory", ex); // NOI18N
+                close();
+            }
+        }
+        reset(MIN_CAPACITY, HEADER_SIZE + MIN_CAPACITY * SLOT_SIZE + 64 * 1024);
+    }
+
+    /**
+     * Read and check the header of a mapped store.
+     */
+    private boolean load() {
+        if (buffer.getInt(HEADER_MAGIC) != MAGIC || buffer.getInt(HEADER_VERSION) != version) {
+            return false;
+        }
+        capacity = buffer.getInt(HEADER_CAPACITY);
+        count = buffer.getInt(HEADER_COUNT);
+        used = buffer.getInt(HEADER_USED);
+        end = buffer.getInt(HEADER_END);
+        garbage = buffer.getInt(HEADER_GARBAGE);
+        if (capacity < MIN_CAPACITY || Integer.bitCount(capacity) != 1 ||
+                (long) capacity * SLOT_SIZE > buffer.capacity() ||
+                HEADER_SIZE + (long) capacity * SLOT_SIZE > end || end > buffer.capacity() ||
+                count < 0 || used < count || used > capacity || garbage < 0) {
+            return false;
+        }
+        int records = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = getSlotOffset(slot);
+            if (offset == SLOT_EMPTY || offset == SLOT_DELETED) {
+                continue;
+            }
+            if (offset < getRecordStart() || offset > end - RECORD_HEADER_SIZE) {
+                return false;
+            }
+            long size = buffer.getInt(offset);
+            long keyLength = buffer.getInt(offset + 4);
+            long valueLength = buffer.getInt(offset + 8);
+            if (size < RECORD_HEADER_SIZE || offset + size > end ||
+                    keyLength < 0 || valueLength < 0 ||
+                    RECORD_HEADER_SIZE + keyLength + valueLength > size) {
+                return false;
+            }
+            records++;
+        }
+        if (records != count) {
+            return false;
+        }
+        if (buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) buffer).load();
+        }
+        return true;
+    }
+
+    /**
+     * Get the value stored for a key.
+     *
+     * @return the value or null if the key is not in the store.
+     */
+    public synchronized byte[] get(byte[] key) {
+        int slot = findSlot(key);
+        if (slot < 0) {
+            return null;
+        }
+        return getValue(getSlotOffset(slot));
+    }
+
+    /**
+     * Read all entries of the store.
+     */
+    public synchronized List<Entry> getAll() {
+        List<Entry> entries = new ArrayList<Entry>(count);
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = getSlotOffset(slot);
+            if (offset != SLOT_EMPTY && offset != SLOT_DELETED) {
+                entries.add(new Entry(getKey(offset), getValue(offset)));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Store a value, replacing any previous value of the key.
+     */
+    public synchronized void put(byte[] key, byte[] value) {
+        int size = RECORD_HEADER_SIZE + key.length + value.length;
+        int hash = hash(key);
+        int slot = findSlot(key);
+        int offset;
+
+        if (slot >= 0) {
+            offset = getSlotOffset(slot);
+            if (buffer.getInt(offset) < size) {
+                garbage += buffer.getInt(offset);
+                offset = allocate(size);
+                if (offset < 0) {
+                    put(key, value);
+                    return;
+                }
+                setSlot(slot, hash, offset);
+            }
+        } else {
+            if (used + 1 > capacity * 3 / 4) {
+                rebuild(Math.max(capacity, (count + 1) * 2), 0);
+            }
+            offset = allocate(size);
+            if (offset < 0) {
+                put(key, value);
+                return;
+            }
+            slot = findFreeSlot(hash);
+            if (getSlotOffset(slot) == SLOT_EMPTY) {
+                used++;
+            }
+            setSlot(slot, hash, offset);
+            count++;
+        }
+
+        buffer.putInt(offset + 4, key.length);
+        buffer.putInt(offset + 8, value.length);
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset + RECORD_HEADER_SIZE);
+        record.put(key);
+        record.put(value);
+        writeHeader();
+    }
+
+    /**
+     * Remove the value of a key.
+     */
+    public synchronized void remove(byte[] key) {
+        int slot = findSlot(key);
+        if (slot < 0) {
+            return;
+        }
+        garbage += buffer.getInt(getSlotOffset(slot));
+        setSlot(slot, 0, SLOT_DELETED);
+        count--;
+        writeHeader();
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public synchronized void clear() {
+        reset(MIN_CAPACITY, buffer.capacity());
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Write changes of the mapped file to disk and release the file.
+     */
+    public synchronized void close() {
+        if (buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) buffer).force();
+        }
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException ex) {
+                Git.LOG.log(Level.FINE, null, ex);
+            }
+            raf = null;
+        }
+    }
+
+    /**
+     * Allocate space for a record at the end of the record area, growing
+     * or compacting the store when there is not enough space left.
+     *
+     * @return the offset of the record or -1 if the store was compacted
+     *         and the caller has to start over.
+     */
+    private int allocate(int size) {
+        int allocated = (size + size / 4 + RECORD_ALIGNMENT - 1) & ~(RECORD_ALIGNMENT - 1);
+        if (end + allocated > buffer.capacity()) {
+            if (garbage > MIN_COMPACT_GARBAGE && garbage > (end - getRecordStart()) / 2) {
+                rebuild(capacity, allocated);
+                return -1;
+            }
+            grow(end + allocated);
+        }
+        int offset = end;
+        buffer.putInt(offset, allocated);
+        end += allocated;
+        return offset;
+    }
+
+    private void grow(int minimum) {
+        long size = buffer.capacity();
+        while (size < minimum) {
+            size *= 2;
+        }
+        if (size > Integer.MAX_VALUE) {
+            size = Integer.MAX_VALUE;
+        }
+        ByteBuffer grown = null;
+        if (raf != null) {
+            try {
+                grown = map((int) size);
+            } catch (IOException ex) {
+                Git.LOG.log(Level.INFO, "Keeping status store in memory", ex); // NOI18N
+                close();
+            }
+        }
+        if (grown == null) {
+            grown = ByteBuffer.allocate((int) size);
+            ByteBuffer old = buffer.duplicate();
+            old.clear();
+            grown.put(old);
+        }
+        buffer = grown;
+    }
+
+    /**
+     * Rewrite the store with a new index capacity, dropping all unused
+     * space from the record area.
+     */
+    private void rebuild(int minCapacity, int extraSpace) {
+        List<Entry> entries = getAll();
+        int newCapacity = MIN_CAPACITY;
+        while (newCapacity < minCapacity) {
+            newCapacity <<= 1;
+        }
+        int size = HEADER_SIZE + newCapacity * SLOT_SIZE + extraSpace;
+        for (Entry entry : entries) {
+            size += RECORD_HEADER_SIZE + entry.getKey().length + entry.getValue().length;
+        }
+        reset(newCapacity, Math.max(size + size / 2, buffer.capacity()));
+        for (Entry entry : entries) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void reset(int newCapacity, int size) {
+        if (buffer == null || buffer.capacity() < size) {
+            buffer = null;
+            if (raf != null) {
+                try {
+                    buffer = map(size);
+                } catch (IOException ex) {
+                    Git.LOG.log(Level.INFO, "Keeping status store in memory", ex); // NOI18N
+                    close();
+                }
+            }
+            if (buffer == null) {
+                buffer = ByteBuffer.allocate(size);
+            }
+        }
+        capacity = newCapacity;
+        count = 0;
+        used = 0;
+        garbage = 0;
+        end = getRecordStart();
+        for (int i = HEADER_SIZE; i < end; i += 4) {
+            buffer.putInt(i, 0);
+        }
+        buffer.putInt(HEADER_MAGIC, MAGIC);
+        buffer.putInt(HEADER_VERSION, version);
+        writeHeader();
+    }
+
+    private ByteBuffer map(int size) throws IOException {
+        return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private void writeHeader() {
+        buffer.putInt(HEADER_CAPACITY, capacity);
+        buffer.putInt(HEADER_COUNT, count);
+        buffer.putInt(HEADER_USED, used);
+        buffer.putInt(HEADER_END, end);
+        buffer.putInt(HEADER_GARBAGE, garbage);
+    }
+
+    private int getRecordStart() {
+        return HEADER_SIZE + capacity * SLOT_SIZE;
+    }
+
+    private int getSlotOffset(int slot) {
+        return buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE + 4);
+    }
+
+    private void setSlot(int slot, int hash, int offset) {
+        buffer.putInt(HEADER_SIZE + slot * SLOT_SIZE, hash);
+        buffer.putInt(HEADER_SIZE + slot * SLOT_SIZE + 4, offset);
+    }
+
+    private int findSlot(byte[] key) {
+        int hash = hash(key);
+        int mask = capacity - 1;
+        for (int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+            int offset = getSlotOffset(slot);
+            if (offset == SLOT_EMPTY) {
+                return -1;
+            }
+            if (offset != SLOT_DELETED &&
+                    buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE) == hash &&
+                    keyEquals(offset, key)) {
+                return slot;
+            }
+        }
+    }
+
+    private int findFreeSlot(int hash) {
+        int mask = capacity - 1;
+        for (int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+            int offset = getSlotOffset(slot);
+            if (offset == SLOT_EMPTY || offset == SLOT_DELETED) {
+                return slot;
+            }
+        }
+    }
+
+    private boolean keyEquals(int offset, byte[] key) {
+        if (buffer.getInt(offset + 4) != key.length) {
+            return false;
+        }
+        int position = offset + RECORD_HEADER_SIZE;
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(position + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] getKey(int offset) {
+        byte[] key = new byte[buffer.getInt(offset + 4)];
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset + RECORD_HEADER_SIZE);
+        record.get(key);
+        return key;
+    }
+
+    private byte[] getValue(int offset) {
+        byte[] value = new byte[buffer.getInt(offset + 8)];
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset + RECORD_HEADER_SIZE + buffer.getInt(offset + 4));
+        record.get(value);
+        return value;
+    }
+
+    private static int hash(byte[] key) {
+        int hash = 1;
+        for (int i = 0; i < key.length; i++) {
+            hash = 31 * hash + key[i];
+        }
+        return hash;
+    }
+
+    private static int mix(int hash) {
+        hash ^= (hash >>> 16);
+        return hash * 0x85ebca6b;
+    }
+
+    /**
+     * Key and value of a stored record.
+     */
+    public static class Entry {
+
+        private final byte[] key;
+        private final byte[] value;
+
+        private Entry(byte[] key, byte[] value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public byte[] getKey() {
+            return key;
+        }
+
+        public byte[] getValue() {
+            return value;
+        }
+    }
+
+}
@@ -0,0 +1,233 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2009 Jonas Fonseca <fonseca@diku.dk>
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common
+ * Development and Distribution License("CDDL") (collectively, the
+ * "License"). You may not use this file except in compliance with the
+ * License. You can obtain a copy of the License at
+ * http://www.netbeans.org/cddl-gplv2.html. See the License for the
+ * specific language governing permissions and limitations under the
+ * License.  When distributing the software, include this License Header
+ * Notice in each file.
+ *
+ * This particular file is subject to the "Classpath" exception as provided
+ * by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code. If applicable, add the following below the
+ * License Header, with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL
+ * or only the GPL Version 2, indicate your decision by adding
+ * "[Contributor] elects to include this software in this distribution
+ * under the [CDDL or GPL Version 2] license." If you do not indicate a
+ * single choice of license, a recipient has the option to distribute
+ * your version of this file under either the CDDL, the GPL Version 2 or
+ * to extend the choice of license to its licensees as provided above.
+ * However, if you add GPL Version 2 code and therefore, elected the GPL
+ * Version 2 license, then the option applies only if the new code is
+ * made subject to such option by the copyright holder.
+ */
+package org.nbgit;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.netbeans.modules.versioning.util.Utils;
+
+/**
+ * Path trie over a set of file statuses.
+ *
+ * Every node keeps the union of the statuses found in its subtree, so
+ * subtrees without any file of the requested status are skipped and
+ * finding the node for a root costs time proportional to its depth.
+ */
+final class StatusTrie {
+
+    private final Node root = new Node(null);
+
+    private StatusTrie() {
+    }
+
+    public static StatusTrie create(Map<File, StatusInfo> files) {
+        StatusTrie trie = new StatusTrie();
+        for (Map.Entry<File, StatusInfo> entry : files.entrySet()) {
+            trie.put(entry.getKey(), entry.getValue());
+        }
+        return trie;
+    }
+
+    private void put(File file, StatusInfo info) {
+        Node node = root;
+        List<File> path = getPath(file);
+        for (int i = path.size() - 1; i >= 0; i--) {
+            node.aggregate |= info.getStatus();
+            node = node.getOrCreateChild(path.get(i));
+        }
+        node.aggregate |= info.getStatus();
+        node.info = info;
+    }
+
+    /**
+     * Collect files with one of the given statuses below a root.
+     *
+     * @param dir the root to search.
+     * @param includeStatus status mask.
+     * @param flat whether to only consider the direct children of the root.
+     * @param includeSelf whether the root itself may be part of the result.
+     * @param exclusions files whose subtrees are skipped, may be empty.
+     * @param result collection to add matching files to.
+     */
+    public void collect(File dir, int includeStatus, boolean flat, boolean includeSelf,
+            Set<File> exclusions, Collection<File> result) {
+        Node node = findNode(dir, includeStatus, exclusions);
+        if (node == null) {
+            return;
+        }
+        if (includeSelf && node.info != null && (node.info.getStatus() & includeStatus) != 0) {
+            result.add(node.file);
+        }
+        if (flat) {
+            for (Node child : node.getChildren()) {
+                if (child.info != null && (child.info.getStatus() & includeStatus) != 0 &&
+                        !exclusions.contains(child.file)) {
+                    result.add(child.file);
+                }
+            }
+        } else {
+            for (Node child : node.getChildren()) {
+                collect(child, includeStatus, exclusions, result);
+            }
+        }
+    }
+
+    /**
+     * Check whether there is a file with one of the given statuses below
+     * a root. Takes the same arguments as {@link #collect}.
+     */
+    public boolean contains(File dir, int includeStatus, boolean flat, boolean includeSelf,
+            Set<File> exclusions) {
+        Node node = findNode(dir, includeStatus, exclusions);
+        if (node == null) {
+            return false;
+        }
+        if (includeSelf && node.info != null && (node.info.getStatus() & includeStatus) != 0) {
+            return true;
+        }
+        for (Node child : node.getChildren()) {
+            if (flat) {
+                if (child.info != null && (child.info.getStatus() & includeStatus) != 0 &&
+                        !exclusions.contains(child.file)) {
+                    return true;
+                }
+            } else if (contains(child, includeStatus, exclusions)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void collect(Node node, int includeStatus, Set<File> exclusions, Collection<File> result) {
+        if ((node.aggregate & includeStatus) == 0 || exclusions.contains(node.file)) {
+            return;
+        }
+        if (node.info != null && (node.info.getStatus() & includeStatus) != 0) {
+            result.add(node.file);
+        }
+        for (Node child : node.getChildren()) {
+            collect(child, includeStatus, exclusions, result);
+        }
+    }
+
+    private boolean contains(Node node, int includeStatus, Set<File> exclusions) {
+        if ((node.aggregate & includeStatus) == 0 || exclusions.contains(node.file)) {
+            return false;
+        }
+        if (node.info != null && (node.info.getStatus() & includeStatus) != 0) {
+            return true;
+        }
+        for (Node child : node.getChildren()) {
+            if (contains(child, includeStatus, exclusions)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Node findNode(File dir, int includeStatus, Set<File> exclusions) {
+        for (File excluded : exclusions) {
+            if (Utils.isAncestorOrEqual(excluded, dir)) {
+                return null;
+            }
+        }
+        Node node = root;
+        List<File> path = getPath(dir);
+        for (int i = path.size() - 1; i >= 0 && node != null; i--) {
+            if ((node.aggregate & includeStatus) == 0) {
+                return null;
+            }
+            node = node.getChild(path.get(i));
+        }
+        return node != null && (node.aggregate & includeStatus) != 0 ? node : null;
+    }
+
+    private static List<File> getPath(File file) {
+        List<File> path = new ArrayList<File>();
+        for (File parent = file; parent != null; parent = parent.getParentFile()) {
+            path.add(parent);
+        }
+        return path;
+    }
+
+    private static String getName(File file) {
+        String name = file.getName();
+        return name.length() > 0 ? name : file.getPath();
+    }
+
+    private static class Node {
+
+        private final File file;
+        private Map<String, Node> children;
+        private StatusInfo info;
+        private int aggregate;
+
+        public Node(File file) {
+            this.file = file;
+        }
+
+        public Node getChild(File file) {
+            return children == null ? null : children.get(getName(file));
+        }
+
+        public Node getOrCreateChild(File file) {
+            if (children == null) {
+                children = new HashMap<String, Node>(4);
+            }
+            String name = getName(file);
+            Node child = children.get(name);
+            if (child == null) {
+                child = new Node(file);
+                children.put(name, child);
+            }
+            return child;
+        }
+
+        public Collection<Node> getChildren() {
+            if (children == null) {
+                return Collections.emptyList();
+            }
+            return children.values();
+        }
+    }
+
+}
@@ -0,0 +1,245 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2009 Jonas Fonseca <fonseca@diku.dk>
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common
+ * Development and Distribution License("CDDL") (collectively, the
+ * "License"). You may not use this file except in compliance with the
+ * License. You can obtain a copy of the License at
+ * http://www.netbeans.org/cddl-gplv2.html. See the License for the
+ * specific language governing permissions and limitations under the
+ * License.  When distributing the software, include this License Header
+ * Notice in each file.
+ *
+ * This particular file is subject to the "Classpath" exception as provided
+ * by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code. If applicable, add the following below the
+ * License Header, with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL
+ * or only the GPL Version 2, indicate your decision by adding
+ * "[Contributor] elects to include this software in this distribution
+ * under the [CDDL or GPL Version 2] license." If you do not indicate a
+ * single choice of license, a recipient has the option to distribute
+ * your version of this file under either the CDDL, the GPL Version 2 or
+ * to extend the choice of license to its licensees as provided above.
+ * However, if you add GPL Version 2 code and therefore, elected the GPL
+ * Version 2 license, then the option applies only if the new code is
+ * made subject to such option by the copyright holder.
+ */
+package org.nbgit.client;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PackIndexWriter;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.PackedObjectInfo;
+
+/**
+ * Writes blobs into a new pack file instead of one loose object each.
+ *
+ * The number of objects must be known up front since it is part of the
+ * pack header. Each blob is checked against the id it was added with, so
+ * a file modified after it was hashed fails the pack instead of storing
+ * an object under the wrong name. Once all objects have been written the
+ * version 2 index is created and the pack is made available to the
+ * repository.
+ */
+final class BlobPackWriter {
+
+    private static final Comparator<PackedObjectInfo> BY_ID = new Comparator<PackedObjectInfo>() {
+
+        public int compare(PackedObjectInfo a, PackedObjectInfo b) {
+            return a.compareTo(b);
+        }
+    };
+
+    private final Repository repository;
+    private final File packDir;
+    private final File tmpPack;
+    private final int count;
+    private final List<PackedObjectInfo> objects;
+    private final MessageDigest packDigest = Constants.newMessageDigest();
+    private final MessageDigest objectDigest = Constants.newMessageDigest();
+    private final CRC32 crc = new CRC32();
+    private final Deflater deflater;
+    private final byte[] buffer = new byte[8192];
+    private final OutputStream out;
+    private long offset;
+
+    BlobPackWriter(Repository repository, int count) throws IOException {
+        this.repository = repository;
+        this.count = count;
+        this.objects = new ArrayList<PackedObjectInfo>(count);
+        this.packDir = new File(repository.getObjectsDirectory(), "pack"); // NOI18N
+        packDir.mkdirs();
+        this.tmpPack = File.createTempFile("incoming_", ".pack", packDir); // NOI18N
+        this.out = new BufferedOutputStream(new FileOutputStream(tmpPack), 65536);
+        this.deflater = new Deflater(repository.getConfig().getInt("core", "compression", Deflater.DEFAULT_COMPRESSION)); // NOI18N
+
+        byte[] header = new byte[12];
+        System.arraycopy(Constants.PACK_SIGNATURE, 0, header, 0, 4);
+        putInt(header, 4, 2);
+        putInt(header, 8, count);
+        write(header, 0, header.length);
+    }
+
+    /**
+     * Append a blob to the pack.
+     *
+     * @param id the blob is expected to have.
+     * @param file with the content of the blob.
+     * @param length of the file when it was hashed.
+     */
+    void add(ObjectId id, File file, long length) throws IOException {
+        if (objects.size() == count)
+            throw new IOException("Pack already holds " + count + " objects"); // NOI18N
+        PackedObjectInfo info = new PackedObjectInfo(id);
+        info.setOffset(offset);
+        crc.reset();
+        writeHeader(length);
+
+        objectDigest.reset();
+        objectDigest.update(Constants.encodedTypeString(Constants.OBJ_BLOB));
+        objectDigest.update((byte) ' ');
+        objectDigest.update(Constants.encodeASCII(length));
+        objectDigest.update((byte) 0);
+
+        InputStream in = new FileInputStream(file);
+        try {
+            DeflaterOutputStream deflate = new DeflaterOutputStream(new PackOutputStream(), deflater, 8192);
+            long remaining = length;
+            int n;
+            while (remaining > 0 && (n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
+                objectDigest.update(buffer, 0, n);
+                deflate.write(buffer, 0, n);
+                remaining -= n;
+            }
+            deflate.finish();
+            deflater.reset();
+            if (remaining != 0 || in.read() != -1)
+                throw new IOException(file.getPath() + " changed while it was being staged"); // NOI18N
+        } finally {
+            in.close();
+        }
+        if (!id.equals(ObjectId.fromRaw(objectDigest.digest())))
+            throw new IOException(file.getPath() + " changed while it was being staged"); // NOI18N
+
+        info.setCRC((int) crc.getValue());
+        objects.add(info);
+    }
+
+    /**
+     * Complete the pack, write its index and register it with the
+     * repository.
+     */
+    void finish() throws IOException {
+        if (objects.size() != count)
+            throw new IOException("Pack holds " + objects.size() + " of " + count + " objects"); // NOI18N
+        byte[] packChecksum = packDigest.digest();
+        out.write(packChecksum);
+        out.close();
+        deflater.end();
+
+        Collections.sort(objects, BY_ID);
+        MessageDigest nameDigest = Constants.newMessageDigest();
+        byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        for (PackedObjectInfo object : objects) {
+            object.copyRawTo(raw, 0);
+            nameDigest.update(raw);
+        }
+        String name = "pack-" + ObjectId.fromRaw(nameDigest.digest()).name(); // NOI18N
+        File packFile = new File(packDir, name + ".pack"); // NOI18N
+        File idxFile = new File(packDir, name + ".idx"); // NOI18N
+        File tmpIdx = new File(packDir, tmpPack.getName().replace(".pack", ".idx")); // NOI18N
+
+        OutputStream idx = new BufferedOutputStream(new FileOutputStream(tmpIdx));
+        try {
+            PackIndexWriter.createVersion(idx, 2).write(objects, packChecksum);
+        } finally {
+            idx.close();
+        }
+        tmpPack.setReadOnly();
+        tmpIdx.setReadOnly();
+        if (!tmpPack.renameTo(packFile) || !tmpIdx.renameTo(idxFile)) {
+            tmpIdx.delete();
+            throw new IOException("Unable to install " + packFile); // NOI18N
+        }
+        repository.openPack(packFile, idxFile);
+    }
+
+    /**
+     * Discard the partially written pack.
+     */
+    void abort() {
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+        deflater.end();
+        tmpPack.delete();
+    }
+
+    private void writeHeader(long length) throws IOException {
+        byte[] header = new byte[16];
+        int n = 0;
+        int c = (Constants.OBJ_BLOB << 4) | (int) (length & 0x0f);
+        length >>>= 4;
+        while (length > 0) {
+            header[n++] = (byte) (c | 0x80);
+            c = (int) (length & 0x7f);
+            length >>>= 7;
+        }
+        header[n++] = (byte) c;
+        write(header, 0, n);
+    }
+
+    private void write(byte[] data, int off, int len) throws IOException {
+        out.write(data, off, len);
+        packDigest.update(data, off, len);
+        crc.update(data, off, len);
+        offset += len;
+    }
+
+    private static void putInt(byte[] data, int off, int value) {
+        data[off] = (byte) (value >>> 24);
+        data[off + 1] = (byte) (value >>> 16);
+        data[off + 2] = (byte) (value >>> 8);
+        data[off + 3] = (byte) value;
+    }
+
+    private class PackOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            BlobPackWriter.this.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int off, int len) throws IOException {
+            BlobPackWriter.this.write(data, off, len);
+        }
+    }
+
+}
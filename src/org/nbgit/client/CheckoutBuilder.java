@@ -36,19 +36,29 @@
 package org.nbgit.client;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+import org.nbgit.OutputLogger;
 import org.eclipse.jgit.dircache.DirCache;
 import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
-import org.eclipse.jgit.lib.GitIndex;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.Tree;
 import org.eclipse.jgit.lib.TreeEntry;
@@ -59,6 +69,9 @@
 public class CheckoutBuilder extends ClientBuilder {
 
     private static final String BACKUP_EXT = ".orig";
+    private static final String CHECKING_OUT = "U %s"; // NOI18N
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_THREADS = 4;
     private final HashMap<RevisionEntry, File> fileMappings = new HashMap<RevisionEntry, File>();
     private boolean backup;
     private Tree tree;
@@ -171,20 +184,52 @@ public CheckoutBuilder backup(boolean backup) {
         return this;
     }
 
+    public CheckoutBuilder log(OutputLogger logger) {
+        return log(CheckoutBuilder.class, logger);
+    }
+
     /**
      * Perform the checkout. Non-existing files added before a revision
-     * was set will be ignored.
+     * was set will be ignored. The files are written concurrently, each
+     * blob being copied to disk in fixed-size chunks.
      *
      * @throws IOException if the checkout fails.
      */
     public void checkout() throws IOException {
-        for (Map.Entry<RevisionEntry, File> mapping : fileMappings.entrySet()) {
-            RevisionEntry entry = mapping.getKey();
+        final List<Map.Entry<RevisionEntry, File>> mappings =
+                new ArrayList<Map.Entry<RevisionEntry, File>>(fileMappings.entrySet());
+        Set<File> dirs = new LinkedHashSet<File>();
+        for (Map.Entry<RevisionEntry, File> mapping : mappings) {
             File file = mapping.getValue();
             if (backup)
                 backupFile(file);
-            checkoutEntry(entry.getObjectId(), entry.getModeBits(), file);
+            dirs.add(file.getParentFile());
         }
+        for (File dir : dirs) {
+            if (dir != null && !dir.isDirectory())
+                dir.mkdirs();
+        }
+
+        runStriped(Math.min(MAX_THREADS, 1 + mappings.size() / 16), new Stripe() {
+
+            public void run(int first, int step) throws IOException {
+                checkout(mappings, first, step);
+            }
+        });
+    }
+
+    private void checkout(List<Map.Entry<RevisionEntry, File>> mappings, int first, int step)
+            throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (int i = first; i < mappings.size(); i += step) {
+            Map.Entry<RevisionEntry, File> mapping = mappings.get(i);
+            checkoutEntry(mapping.getKey(), mapping.getValue(), buffer);
+            logCheckout(mapping.getValue());
+        }
+    }
+
+    private synchronized void logCheckout(File file) {
+        log(CHECKING_OUT, file);
     }
 
     private void backupFile(File file) throws IOException {
@@ -200,23 +245,82 @@ private void backupFile(File file) throws IOException {
         }
     }
 
+    private void checkoutEntry(RevisionEntry entry, File file, byte[] buffer) throws IOException {
+        file.delete();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            if (!copyLooseBlob(entry.getObjectId(), out, buffer))
+                copyBlob(entry.getObjectId(), out);
+        } finally {
+            out.close();
+        }
+        setExecutable(file, FileMode.EXECUTABLE_FILE.equals(entry.getModeBits()));
+    }
+
     /*
-     * Code originally from GitIndex.
+     * Loose objects are inflated straight to disk so that the content of
+     * large files is never held in memory.
      */
-    private void checkoutEntry(GitIndex.Entry e, File file) throws IOException {
-  file.delete();
-  file.getParentFile().mkdirs();
-
-        FileChannel channel = new FileOutputStream(file).getChannel();
+    private boolean copyLooseBlob(ObjectId id, OutputStream out, byte[] buffer) throws IOException {
+        InputStream in;
+        try {
+            in = new FileInputStream(repository.toFile(id));
+        } catch (FileNotFoundException notLoose) {
+            return false;
+        }
+        Inflater inflater = new Inflater();
         try {
-      byte[] bytes = repository.openBlob(e.getObjectId()).getBytes();
-      ByteBuffer buffer = ByteBuffer.wrap(bytes);
-      if (channel.write(buffer) != bytes.length)
-       throw new IOException("Could not write file " + file);
+            InputStream blob = new InflaterInputStream(in, inflater, BUFFER_SIZE);
+            long size;
+            try {
+                size = readBlobHeader(blob);
+            } catch (ZipException legacyFormat) {
+                size = -1;
+            }
+            if (size < 0)
+                return false;
+            while (size > 0) {
+                int n = blob.read(buffer, 0, (int) Math.min(buffer.length, size));
+                if (n < 0)
+                    throw new IOException("Truncated object " + id.name()); // NOI18N
+                out.write(buffer, 0, n);
+                size -= n;
+            }
+            return true;
         } finally {
-      channel.close();
+            inflater.end();
+            in.close();
         }
-        setExecutable(file, FileMode.EXECUTABLE_FILE.equals(e.getModeBits()));
- }
+    }
+
+    /*
+     * Returns the size of the blob, or -1 if the loose object does not
+     * use the standard "blob <size>\0" header.
+     */
+    private static long readBlobHeader(InputStream in) throws IOException {
+        byte[] type = Constants.encodedTypeString(Constants.OBJ_BLOB);
+        for (int i = 0; i < type.length; i++) {
+            if (in.read() != type[i])
+                return -1;
+        }
+        if (in.read() != ' ')
+            return -1;
+        long size = 0;
+        for (int c = in.read(); c != 0; c = in.read()) {
+            if (c < '0' || c > '9' || size > Long.MAX_VALUE / 10)
+                return -1;
+            size = size * 10 + (c - '0');
+        }
+        return size;
+    }
+
+    private void copyBlob(ObjectId id, OutputStream out) throws IOException {
+        ObjectLoader loader = repository.openObject(id);
+        if (loader == null || loader.getType() != Constants.OBJ_BLOB)
+            throw new IOException("Missing blob " + id.name()); // NOI18N
+        byte[] bytes = loader.getCachedBytes();
+        for (int off = 0; off < bytes.length; off += BUFFER_SIZE)
+            out.write(bytes, off, Math.min(BUFFER_SIZE, bytes.length - off));
+    }
 
 }
@@ -36,13 +36,22 @@
 package org.nbgit.client;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import org.nbgit.Git;
 import org.nbgit.OutputLogger;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.util.FS;
+import org.openide.util.RequestProcessor;
 
 public class ClientBuilder {
 
+    /**
+     * Maximum number of stripes run at the same time by builders.
+     */
+    protected static final int MAX_WORKERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final RequestProcessor WORKERS = new RequestProcessor("Git client workers", MAX_WORKERS - 1); // NOI18N
     protected final Repository repository;
     protected OutputLogger logger;
     private Boolean trustFileMode;
@@ -68,6 +77,64 @@ protected void log(String format, Object... args) {
         }
     }
 
+    /**
+     * Part of a job split over several threads. A stripe handles the
+     * items at index first, first + step, first + 2 * step and so on.
+     */
+    protected interface Stripe {
+
+        void run(int first, int step) throws IOException;
+    }
+
+    /**
+     * Run the stripes of a job in parallel and wait for all of them. The
+     * calling thread runs the first stripe, the others are posted to a
+     * worker pool shared by all builders.
+     *
+     * @param stripes to split the job into, capped at {@link #MAX_WORKERS}.
+     * @param stripe to run.
+     * @throws IOException if any stripe failed.
+     */
+    protected static void runStriped(int stripes, final Stripe stripe) throws IOException {
+        final int step = Math.min(stripes, MAX_WORKERS);
+        if (step <= 1) {
+            stripe.run(0, 1);
+            return;
+        }
+        final Throwable[] failure = new Throwable[1];
+        List<RequestProcessor.Task> tasks = new ArrayList<RequestProcessor.Task>(step - 1);
+        for (int i = 1; i < step; i++) {
+            final int first = i;
+            tasks.add(WORKERS.post(new Runnable() {
+
+                public void run() {
+                    try {
+                        stripe.run(first, step);
+                    } catch (Throwable error) {
+                        synchronized (failure) {
+                            if (failure[0] == null)
+                                failure[0] = error;
+                        }
+                    }
+                }
+            }));
+        }
+        try {
+            stripe.run(0, step);
+        } finally {
+            for (RequestProcessor.Task task : tasks)
+                task.waitFinished();
+        }
+        synchronized (failure) {
+            if (failure[0] instanceof IOException)
+                throw (IOException) failure[0];
+            if (failure[0] instanceof RuntimeException)
+                throw (RuntimeException) failure[0];
+            if (failure[0] instanceof Error)
+                throw (Error) failure[0];
+        }
+    }
+
     protected String toPath(File file) {
         return Repository.stripWorkDir(repository.getWorkDir(), file);
     }
@@ -36,12 +36,24 @@
 package org.nbgit.client;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import org.nbgit.OutputLogger;
-import org.eclipse.jgit.lib.GitIndex.Entry;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.GitIndex;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectWriter;
 import org.eclipse.jgit.lib.Repository;
 
 /**
@@ -53,7 +65,14 @@ public class IndexBuilder extends ClientBuilder {
     private static String UPDATING = "M %s"; // NOI18N
     private static String DELETING = "D %s"; // NOI18N
     private static String MOVING = "R %s -> %s"; // NOI18N
+    /**
+     * Default number of staged files from which bulk adds write the
+     * blobs missing from the repository into a pack.
+     */
+    public static final int DEFAULT_PACK_THRESHOLD = 1000;
     private final GitIndex index;
+    private int packThreshold = DEFAULT_PACK_THRESHOLD;
+    private boolean written;
 
     private IndexBuilder(Repository repository, GitIndex index) {
         super(repository);
@@ -76,9 +95,34 @@ public IndexBuilder add(File file) throws IOException {
         return this;
     }
 
+    /**
+     * Add or update several files. Unless there are other pending
+     * changes, the files are staged in bulk: their content is hashed on
+     * all available processors and the new index is built and written
+     * in a single pass.
+     *
+     * @param files to add.
+     * @return the builder.
+     */
     public IndexBuilder addAll(Collection<File> files) throws IOException {
-        for (File file : files)
-            add(file);
+        if (index.isChanged() || files.isEmpty()) {
+            for (File file : files)
+                add(file);
+        } else {
+            bulkAdd(files);
+        }
+        return this;
+    }
+
+    /**
+     * Set the number of files from which {@link #addAll(Collection)}
+     * writes the new blobs into a single pack instead of loose objects.
+     *
+     * @param threshold number of files.
+     * @return the builder.
+     */
+    public IndexBuilder packThreshold(int threshold) {
+        this.packThreshold = threshold;
         return this;
     }
 
@@ -102,7 +146,8 @@ public IndexBuilder deleteAll(Collection<File> files) {
     }
 
     public void write() throws IOException {
-        index.write();
+        if (!written || index.isChanged())
+            index.write();
     }
 
     public ObjectId writeTree() throws IOException {
@@ -120,6 +165,137 @@ private void removeEntry(File file) {
         }
     }
 
+    private void bulkAdd(Collection<File> files) throws IOException {
+        BulkEntry[] entries = new BulkEntry[files.size()];
+        int count = 0;
+        for (File file : files) {
+            if (!file.isFile())
+                throw new FileNotFoundException(file.getPath() + " (No such file or directory)"); // NOI18N
+            entries[count++] = new BulkEntry(toPath(file), file);
+        }
+        Arrays.sort(entries);
+        boolean pack = entries.length >= packThreshold;
+        hashAll(entries, !pack);
+        if (pack)
+            writePack(entries);
+
+        DirCache cache = DirCache.lock(repository);
+        try {
+            DirCacheBuilder builder = cache.builder();
+            int existing = 0;
+            int existingCount = cache.getEntryCount();
+            BulkEntry last = null;
+            for (BulkEntry entry : entries) {
+                if (last != null && last.path.equals(entry.path))
+                    continue;
+                while (existing < existingCount) {
+                    DirCacheEntry current = cache.getEntry(existing);
+                    int cmp = current.getPathString().compareTo(entry.path);
+                    if (cmp > 0)
+                        break;
+                    if (cmp < 0)
+                        builder.keep(existing, 1);
+                    existing++;
+                }
+                log(cache.getEntry(entry.path) == null ? ADDING : UPDATING, entry.file);
+                builder.add(entry.toDirCacheEntry());
+                last = entry;
+            }
+            if (existing < existingCount)
+                builder.keep(existing, existingCount - existing);
+            builder.finish();
+            if (!builder.commit())
+                throw new IOException("Unable to write the index"); // NOI18N
+        } finally {
+            cache.unlock();
+        }
+        index.read();
+        written = true;
+    }
+
+    private void hashAll(final BulkEntry[] entries, final boolean insert) throws IOException {
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), 1 + entries.length / 64);
+        runStriped(threads, new Stripe() {
+
+            public void run(int first, int step) throws IOException {
+                hash(entries, first, step, insert);
+            }
+        });
+    }
+
+    private void hash(BulkEntry[] entries, int first, int step, boolean insert) throws IOException {
+        ObjectWriter writer = new ObjectWriter(repository);
+        for (int i = first; i < entries.length; i += step) {
+            BulkEntry entry = entries[i];
+            entry.lastModified = entry.file.lastModified();
+            entry.length = entry.file.length();
+            entry.executable = isExecutable(entry.file);
+            if (insert) {
+                entry.id = writer.writeBlob(entry.file);
+            } else {
+                InputStream in = new FileInputStream(entry.file);
+                try {
+                    entry.id = writer.computeBlobSha1(entry.length, in);
+                } finally {
+                    in.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the blobs which are not yet in the repository into one pack.
+     */
+    private void writePack(BulkEntry[] entries) throws IOException {
+        Set<ObjectId> ids = new HashSet<ObjectId>();
+        List<BulkEntry> missing = new ArrayList<BulkEntry>();
+        for (BulkEntry entry : entries) {
+            if (ids.add(entry.id) && !repository.hasObject(entry.id))
+                missing.add(entry);
+        }
+        if (missing.isEmpty())
+            return;
+        BlobPackWriter writer = new BlobPackWriter(repository, missing.size());
+        boolean done = false;
+        try {
+            for (BulkEntry entry : missing)
+                writer.add(entry.id, entry.file, entry.length);
+            writer.finish();
+            done = true;
+        } finally {
+            if (!done)
+                writer.abort();
+        }
+    }
+
+    private static class BulkEntry implements Comparable<BulkEntry> {
+
+        private final String path;
+        private final File file;
+        private ObjectId id;
+        private long lastModified;
+        private long length;
+        private boolean executable;
+
+        BulkEntry(String path, File file) {
+            this.path = path;
+            this.file = file;
+        }
+
+        public int compareTo(BulkEntry other) {
+            return path.compareTo(other.path);
+        }
+
+        DirCacheEntry toDirCacheEntry() {
+            DirCacheEntry entry = new DirCacheEntry(path);
+            entry.setFileMode(executable ? FileMode.EXECUTABLE_FILE : FileMode.REGULAR_FILE);
+            entry.setLastModified(lastModified);
+            entry.setLength((int) length);
+            entry.setObjectId(id);
+            return entry;
+        }
+    }
+
     private void addOrUpdateEntry(GitIndex.Entry entry, File file) throws IOException {
         if (entry == null)
             entry = index.add(repository.getWorkDir(), file);
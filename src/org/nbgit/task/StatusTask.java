@@ -42,8 +42,12 @@
 package org.nbgit.task;
 
 import java.io.File;
-import java.util.Collection;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
 import org.nbgit.Git;
 import org.nbgit.GitProgressSupport;
 import org.nbgit.StatusCache;
@@ -54,9 +58,14 @@
 
 /**
  * Connects to repository and gets recent status.
+ *
+ * The status of each repository in the context is computed once. The
+ * result is used both to update or drop the files already in the cache
+ * and to add the files which have an interesting status.
  */
 public class StatusTask extends GitProgressSupport {
 
+    private static final int BATCH_SIZE = 500;
     private final VCSContext context;
 
     public StatusTask(VCSContext context) {
@@ -72,34 +81,96 @@ final protected void perform() {
         if (repository == null) {
             return;
         }
-        StatusCache cache = Git.getInstance().getStatusCache();
-        cache.refreshCached(context);
+        Git git = Git.getInstance();
+        StatusCache cache = git.getStatusCache();
+        Map<File, List<File>> dirsByRepository = new LinkedHashMap<File, List<File>>();
 
         for (File root : context.getRootFiles()) {
             if (isCanceled()) {
                 return;
             }
-            if (root.isDirectory()) {
-                Map<File, StatusInfo> interestingFiles;
-                interestingFiles = GitCommand.getInterestingStatus(repository, root);
-                if (!interestingFiles.isEmpty()) {
-                    Collection<File> files = interestingFiles.keySet();
+            if (!root.isDirectory()) {
+                cache.refresh(root, StatusCache.REPOSITORY_STATUS_UNKNOWN);
+                continue;
+            }
+            File rootRepository = git.getTopmostManagedParent(root);
+            if (rootRepository == null) {
+                continue;
+            }
+            List<File> dirs = dirsByRepository.get(rootRepository);
+            if (dirs == null) {
+                dirs = new ArrayList<File>();
+                dirsByRepository.put(rootRepository, dirs);
+            }
+            dirs.add(root);
+        }
 
-                    Map<File, Map<File, StatusInfo>> interestingDirs =
-                            GitUtils.getInterestingDirs(interestingFiles, files);
+        List<Map<File, StatusInfo>> updates = new ArrayList<Map<File, StatusInfo>>();
+        List<File> staleFiles = new ArrayList<File>();
+        for (Map.Entry<File, List<File>> entry : dirsByRepository.entrySet()) {
+            List<File> dirs = entry.getValue();
+            Map<File, StatusInfo> allFiles;
+            GitCommand.invalidateStatus(entry.getKey());
+            try {
+                allFiles = GitCommand.getAllStatus(entry.getKey(), dirs);
+            } catch (IOException ex) {
+                Git.LOG.log(Level.FINE, "StatusTask: {0} {1}", new Object[]{entry.getKey(), ex.toString()}); // NOI18N
+                continue;
+            }
+            if (isCanceled()) {
+                return;
+            }
+            Map<File, StatusInfo> statuses = new LinkedHashMap<File, StatusInfo>();
+            for (Map.Entry<File, StatusInfo> file : allFiles.entrySet()) {
+                if (file.getValue().getStatus() != StatusInfo.STATUS_VERSIONED_UPTODATE) {
+                    statuses.put(file.getKey(), file.getValue());
+                }
+            }
+            for (File file : cache.listFiles(dirs.toArray(new File[dirs.size()]), ~0)) {
+                StatusInfo info = allFiles.get(file);
+                if (info == null) {
+                    staleFiles.add(file);
+                } else {
+                    statuses.put(file, info);
+                }
+            }
+            updates.add(statuses);
+        }
 
-                    for (File file : files) {
-                        if (isCanceled()) {
-                            return;
-                        }
-                        StatusInfo fi = interestingFiles.get(file);
+        int total = staleFiles.size();
+        for (Map<File, StatusInfo> statuses : updates) {
+            total += statuses.size();
+        }
+        getProgressHandle().switchToDeterminate(total);
+        int processed = 0;
 
-                        cache.refreshFileStatus(file, fi,
-                                interestingDirs.get(file.isDirectory() ? file : file.getParentFile()));
+        for (int i = 0; i < staleFiles.size(); i += BATCH_SIZE) {
+            if (isCanceled()) {
+                return;
+            }
+            List<File> batch = staleFiles.subList(i, Math.min(i + BATCH_SIZE, staleFiles.size()));
+            cache.refreshStale(batch);
+            processed += batch.size();
+            getProgressHandle().progress(processed);
+        }
+        for (Map<File, StatusInfo> statuses : updates) {
+            Map<File, StatusInfo> batch = new LinkedHashMap<File, StatusInfo>();
+            for (Map.Entry<File, StatusInfo> entry : statuses.entrySet()) {
+                batch.put(entry.getKey(), entry.getValue());
+                if (batch.size() == BATCH_SIZE) {
+                    if (isCanceled()) {
+                        return;
                     }
+                    cache.applyStatusBatch(batch);
+                    processed += batch.size();
+                    getProgressHandle().progress(processed);
+                    batch = new LinkedHashMap<File, StatusInfo>();
                 }
-            } else {
-                cache.refresh(root, StatusCache.REPOSITORY_STATUS_UNKNOWN);
+            }
+            if (!batch.isEmpty()) {
+                cache.applyStatusBatch(batch);
+                processed += batch.size();
+                getProgressHandle().progress(processed);
             }
         }
         performAfter();
@@ -53,7 +53,8 @@ public class BrowserModel {
 
     public static final String CONTENT_ID = "ID";
     private final Document document = new PlainDocument();
-    private final Repository repository;
+    private final File root;
+    private Repository repository;
     private final Set<String> paths = new HashSet<String>();
 
     private RevCommitList commitList;
@@ -61,8 +62,8 @@ public class BrowserModel {
 
     public BrowserModel(Set<File> fileSet, String... ids) {
         File[] files = fileSet.toArray(new File[fileSet.size()]);
-        File root = Git.getInstance().getTopmostManagedParent(files[0]);
-        repository = Git.getInstance().getRepository(root);
+        root = Git.getInstance().getTopmostManagedParent(files[0]);
+        repository = Git.getInstance().acquireRepository(root);
         for (File file : files) {
             file = file.getAbsoluteFile();
             // If the work directory root is included disable path limiting.
@@ -79,6 +80,16 @@ public Repository getRepository() {
         return repository;
     }
 
+    /**
+     * Release the repository kept open while browsing.
+     */
+    public void close() {
+        if (repository != null) {
+            repository = null;
+            Git.getInstance().releaseRepository(root);
+        }
+    }
+
     public boolean hasPaths() {
         return !paths.isEmpty();
     }
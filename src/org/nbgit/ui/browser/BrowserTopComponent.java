@@ -54,9 +54,11 @@ public final class BrowserTopComponent extends TopComponent {
 
     private static final String ICON_PATH = "org/nbgit/resources/icons/gitvcs-icon.png"; // NOI18N
     private static final String PREFERRED_ID = "org-nbgit-ui-browser"; // NOI18N
+    private final BrowserModel model;
     private int commitIndex = -1;
 
     public BrowserTopComponent(BrowserModel model) {
+        this.model = model;
         initComponents();
         setName(_("CTL_BrowserTopComponent")); // NOI18N
         setToolTipText(_("HINT_BrowserTopComponent")); // NOI18N
@@ -120,6 +122,12 @@ protected String preferredID() {
         return PREFERRED_ID;
     }
 
+    @Override
+    protected void componentClosed() {
+        super.componentClosed();
+        model.close();
+    }
+
     private void firePropertyChange(BrowserProperty property, Object oldValue, Object newValue) {
         super.firePropertyChange(property.name(), oldValue, newValue);
     }
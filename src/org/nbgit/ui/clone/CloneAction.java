@@ -136,10 +136,21 @@ private static RequestProcessor.Task performClone(
         RequestProcessor rp = Git.getInstance().getRequestProcessor(source.toString());
         final GitProgressSupport support = new GitProgressSupport() {
 
-            Repository repo = Git.getInstance().getRepository(target);
-
             @Override
             protected void perform() {
+                Repository repo = Git.getInstance().acquireRepository(target);
+                if (repo == null) {
+                    notifyLater(new IOException("Unable to create repository in " + target)); // NOI18N
+                    return;
+                }
+                try {
+                    perform(repo);
+                } finally {
+                    Git.getInstance().releaseRepository(target);
+                }
+            }
+
+            private void perform(Repository repo) {
                 String projName = (projFile != null)
                                   ? GitProjectUtils.getProjectName(projFile)
                                   : null;
@@ -244,6 +255,7 @@ public void run() {
 
     public static void doInit(Repository repo, URIish uri, OutputLogger logger) throws IOException, URISyntaxException {
         repo.create();
+        Git.getInstance().repositoryFileChanged(repo.getDirectory());
 
         repo.getConfig().setBoolean("core", null, "bare", false);
         repo.getConfig().save();
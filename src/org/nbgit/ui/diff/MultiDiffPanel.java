@@ -294,8 +294,7 @@ public void removeNotify() {
         super.removeNotify();
     }
 
-    private boolean affectsView(PropertyChangeEvent event) {
-        StatusCache.ChangedEvent changedEvent = (StatusCache.ChangedEvent) event.getNewValue();
+    private boolean affectsView(StatusCache.ChangedEvent changedEvent) {
         File file = changedEvent.getFile();
         StatusInfo oldInfo = changedEvent.getOldInfo();
         StatusInfo newInfo = changedEvent.getNewInfo();
@@ -592,10 +591,18 @@ public void propertyChange(PropertyChangeEvent evt) {
         if (DiffController.PROP_DIFFERENCES.equals(evt.getPropertyName())) {
             refreshComponents();
         } else if (StatusCache.PROP_FILE_STATUS_CHANGED.equals(evt.getPropertyName())) {
-            if (!affectsView(evt)) {
+            if (!affectsView((StatusCache.ChangedEvent) evt.getNewValue())) {
                 return;
             }
             refreshTask.schedule(200);
+        } else if (StatusCache.PROP_FILES_STATUS_CHANGED.equals(evt.getPropertyName())) {
+            StatusCache.BatchChangedEvent changedEvent = (StatusCache.BatchChangedEvent) evt.getNewValue();
+            for (StatusCache.ChangedEvent event : changedEvent.getEvents()) {
+                if (affectsView(event)) {
+                    refreshTask.schedule(200);
+                    return;
+                }
+            }
         }
     }
 
@@ -188,6 +188,7 @@ public void perform() {
                             "MSG_CREATE_INIT", prjName, root)); // NOI18N
 
                     repo.create();
+                    Git.getInstance().repositoryFileChanged(repo.getDirectory());
                 } catch (IOException ex) {
                     notifyLater(ex);
                 }
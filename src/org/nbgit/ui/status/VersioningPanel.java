@@ -121,11 +121,21 @@ public void propertyChange(PropertyChangeEvent evt) {
         if (StatusCache.PROP_FILE_STATUS_CHANGED.equals(evt.getPropertyName())) {
             StatusCache.ChangedEvent changedEvent = (StatusCache.ChangedEvent) evt.getNewValue();
             Git.LOG.log(Level.FINE, "Status.propertyChange(): {0} file:  {1}", new Object[]{parentTopComponent.getContentTitle(), changedEvent.getFile()}); // NOI18N
-            if (affectsView(evt)) {
+            if (affectsView(changedEvent)) {
                 reScheduleRefresh(1000);
             }
             return;
         }
+        if (StatusCache.PROP_FILES_STATUS_CHANGED.equals(evt.getPropertyName())) {
+            StatusCache.BatchChangedEvent changedEvent = (StatusCache.BatchChangedEvent) evt.getNewValue();
+            for (StatusCache.ChangedEvent event : changedEvent.getEvents()) {
+                if (affectsView(event)) {
+                    reScheduleRefresh(1000);
+                    break;
+                }
+            }
+            return;
+        }
         if (Git.PROP_CHANGESET_CHANGED.equals(evt.getPropertyName())) {
             Object source = evt.getOldValue();
             File root = GitUtils.getRootFile(context);
@@ -452,8 +462,7 @@ private void setDisplayStatuses(int displayStatuses) {
         reScheduleRefresh(0);
     }
 
-    private boolean affectsView(PropertyChangeEvent event) {
-        StatusCache.ChangedEvent changedEvent = (StatusCache.ChangedEvent) event.getNewValue();
+    private boolean affectsView(StatusCache.ChangedEvent changedEvent) {
         File file = changedEvent.getFile();
         StatusInfo oldInfo = changedEvent.getOldInfo();
         StatusInfo newInfo = changedEvent.getNewInfo();
@@ -178,6 +178,7 @@ public static void performRevert(File repository, String revStr, List<File> reve
     public static void revert(File root, List<File> files, String revStr, boolean doBackup, OutputLogger logger) {
         try {
             CheckoutBuilder.create(root).
+                    log(logger).
                     backup(doBackup).
                     revision(revStr).
                     files(files).
@@ -0,0 +1,167 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2009 Jonas Fonseca <fonseca@diku.dk>
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common
+ * Development and Distribution License("CDDL") (collectively, the
+ * "License"). You may not use this file except in compliance with the
+ * License. You can obtain a copy of the License at
+ * http://www.netbeans.org/cddl-gplv2.html. See the License for the
+ * specific language governing permissions and limitations under the
+ * License.  When distributing the software, include this License Header
+ * Notice in each file.
+ *
+ * This particular file is subject to the "Classpath" exception as provided
+ * by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code. If applicable, add the following below the
+ * License Header, with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL
+ * or only the GPL Version 2, indicate your decision by adding
+ * "[Contributor] elects to include this software in this distribution
+ * under the [CDDL or GPL Version 2] license." If you do not indicate a
+ * single choice of license, a recipient has the option to distribute
+ * your version of this file under either the CDDL, the GPL Version 2 or
+ * to extend the choice of license to its licensees as provided above.
+ * However, if you add GPL Version 2 code and therefore, elected the GPL
+ * Version 2 license, then the option applies only if the new code is
+ * made subject to such option by the copyright holder.
+ */
+package org.nbgit.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Watches the files of all {@link MonitoredFileMap}s from one shared
+ * thread. Each file is checked once per round no matter how many maps
+ * hold it, and a change is only reported once the file has stayed the
+ * same for a full round, so a file being written is reported once.
+ * The thread is stopped while no files are watched.
+ */
+final class FileWatcher {
+
+    private static final FileWatcher INSTANCE = new FileWatcher();
+
+    private final Map<String, Watch> watches = new HashMap<String, Watch>();
+    private Timer timer;
+    private int period;
+
+    private FileWatcher() {
+    }
+
+    static FileWatcher getDefault() {
+        return INSTANCE;
+    }
+
+    /**
+     * Start watching a file on behalf of a map.
+     *
+     * @param map to notify when the file changes.
+     * @param file to watch.
+     * @param delay between checks requested by the map.
+     */
+    synchronized void watch(MonitoredFileMap<?> map, File file, int delay) {
+        Watch watch = watches.get(file.getPath());
+        if (watch == null) {
+            watch = new Watch(file);
+            watches.put(file.getPath(), watch);
+        }
+        watch.maps.add(map);
+        if (timer == null || delay < period) {
+            schedule(delay);
+        }
+    }
+
+    synchronized void unwatch(MonitoredFileMap<?> map, File file) {
+        Watch watch = watches.get(file.getPath());
+        if (watch != null) {
+            watch.maps.remove(map);
+            if (watch.maps.isEmpty()) {
+                watches.remove(file.getPath());
+            }
+        }
+        if (watches.isEmpty() && timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    private void schedule(int delay) {
+        if (timer != null) {
+            timer.cancel();
+        }
+        period = delay;
+        timer = new Timer("Git file watcher", true); // NOI18N
+        timer.schedule(new TimerTask() {
+
+            @Override
+            public void run() {
+                poll();
+            }
+        }, delay, delay);
+    }
+
+    private void poll() {
+        List<Watch> changed = new ArrayList<Watch>();
+        synchronized (this) {
+            for (Iterator<Watch> i = watches.values().iterator(); i.hasNext();) {
+                Watch watch = i.next();
+                if (watch.check()) {
+                    changed.add(watch);
+                    i.remove();
+                }
+            }
+        }
+        for (Watch watch : changed) {
+            for (MonitoredFileMap<?> map : watch.maps) {
+                map.fileChanged(watch.file);
+            }
+        }
+    }
+
+    private static class Watch {
+
+        private final File file;
+        private final Set<MonitoredFileMap<?>> maps = new HashSet<MonitoredFileMap<?>>();
+        private long lastModified;
+        private long length;
+        private boolean pending;
+
+        Watch(File file) {
+            this.file = file;
+            this.lastModified = file.lastModified();
+            this.length = file.exists() ? file.length() : -1;
+        }
+
+        /**
+         * @return true if the file changed and has been stable since the
+         *      last check.
+         */
+        boolean check() {
+            long newLastModified = file.lastModified();
+            long newLength = file.exists() ? file.length() : -1;
+            if (newLastModified != lastModified || newLength != length) {
+                lastModified = newLastModified;
+                length = newLength;
+                pending = true;
+                return false;
+            }
+            return pending;
+        }
+    }
+}
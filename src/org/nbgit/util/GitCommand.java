@@ -45,6 +45,8 @@
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -53,17 +55,12 @@
 import org.nbgit.ui.log.RepositoryRevision;
 import org.netbeans.api.queries.SharabilityQuery;
 import org.openide.util.Exceptions;
-import org.eclipse.jgit.dircache.DirCache;
-import org.eclipse.jgit.dircache.DirCacheEntry;
 import org.eclipse.jgit.lib.Constants;
-import org.eclipse.jgit.lib.IndexDiff;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.revwalk.filter.RevFilter;
-import org.eclipse.jgit.treewalk.FileTreeIterator;
-import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.PathFilter;
 import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
 
@@ -167,18 +164,6 @@ private static String getRelative(String root, String dir) {
         return dir.replace(root + File.separator, "");
     }
 
-    private static void put(Set<String> set, String relPath,
-            Map<File, StatusInfo> files, File root, int status) {
-        for (String path : set) {
-            if (relPath.length() > 0 && !path.startsWith(relPath)) {
-                continue;
-            }
-            File file = new File(root, path);
-            files.put(file, new StatusInfo(status, null, false));
-        }
-
-    }
-
     /*
      * m odified
      * a dded
@@ -191,75 +176,79 @@ private static void put(Set<String> set, String relPath,
      * c lean
      */
     public static Map<File, StatusInfo> getAllStatus(File root, File dir) throws IOException {
-        String relPath = getRelative(root, dir);
+        try {
+            return getAllStatus(root, Collections.singletonList(dir));
+        } catch (IOException ex) {
+            Exceptions.printStackTrace(ex);
+            return new HashMap<File, StatusInfo>();
+        }
+    }
 
-        Repository repo = Git.getInstance().getRepository(root);
+    /**
+     * Get the status of all files below several directories of a
+     * repository using a single scan.
+     *
+     * @param root of the repository.
+     * @param dirs to scan, including their subdirectories.
+     * @return map with the status of each file.
+     * @throws IOException if the repository cannot be scanned.
+     */
+    public static Map<File, StatusInfo> getAllStatus(File root, List<File> dirs) throws IOException {
         Map<File, StatusInfo> files = new HashMap<File, StatusInfo>();
+        List<String> paths = new ArrayList<String>(dirs.size());
+        int[] shares = new int[dirs.size()];
+        for (int i = 0; i < dirs.size(); i++) {
+            paths.add(getRelative(root, dirs.get(i)).replace(File.separatorChar, '/'));
+            shares[i] = SharabilityQuery.getSharability(dirs.get(i));
+        }
+        StatusTable table = scan(root, paths);
 
-        try {
-            IndexDiff index = new IndexDiff(repo);
-            index.diff();
-
-            put(index.getAdded(), relPath, files, root,
-                    StatusInfo.STATUS_VERSIONED_ADDEDLOCALLY);
-            put(index.getRemoved(), relPath, files, root,
-                    StatusInfo.STATUS_VERSIONED_REMOVEDLOCALLY);
-            put(index.getMissing(), relPath, files, root,
-                    StatusInfo.STATUS_VERSIONED_DELETEDLOCALLY);
-            put(index.getChanged(), relPath, files, root,
-                    StatusInfo.STATUS_VERSIONED_MODIFIEDLOCALLY);
-            put(index.getModified(), relPath, files, root,
-                    StatusInfo.STATUS_VERSIONED_MODIFIEDLOCALLY);
-
-            final FileTreeIterator workTree = new FileTreeIterator(repo.getWorkDir());
-            final TreeWalk walk = new TreeWalk(repo);
-            DirCache cache = DirCache.read(repo);
-
-            walk.reset(); // drop the first empty tree
-            walk.setRecursive(true);
-            walk.addTree(workTree);
-
-            int share = SharabilityQuery.getSharability(dir);
-            if (share == SharabilityQuery.NOT_SHARABLE) {
-                return files;
+        for (int i = 0; i < table.size(); i++) {
+            int flags = table.getFlags(i);
+            int share = shares[indexOfParent(paths, table.getPath(i))];
+            if (share == SharabilityQuery.NOT_SHARABLE &&
+                    (flags & (StatusTable.UNTRACKED | StatusTable.UPTODATE)) != 0) {
+                continue;
             }
-            while (walk.next()) {
-                String path = walk.getPathString();
-
-                if (relPath.length() > 0 && !path.startsWith(relPath)) {
-                    continue;
-                }
-                if (index.getAdded().contains(path) ||
-                        index.getRemoved().contains(path) ||
-                        index.getMissing().contains(path) ||
-                        index.getChanged().contains(path) ||
-                        index.getModified().contains(path)) {
-                    continue;
-                }
-                DirCacheEntry entry = cache.getEntry(path);
-                File file = new File(root, path);
-
-                int status;
-                if (entry != null) {
-                    status = StatusInfo.STATUS_VERSIONED_UPTODATE;
-                } else {
-                    if (share == SharabilityQuery.MIXED &&
-                            SharabilityQuery.getSharability(file) == SharabilityQuery.NOT_SHARABLE) {
-                        continue;
-                    }
-                    status = StatusInfo.STATUS_NOTVERSIONED_NEWLOCALLY;
-                }
-
-                files.put(file, new StatusInfo(status, null, false));
+            File file = new File(root, table.getPath(i));
+            if ((flags & StatusTable.UNTRACKED) != 0 &&
+                    share == SharabilityQuery.MIXED &&
+                    SharabilityQuery.getSharability(file) == SharabilityQuery.NOT_SHARABLE) {
+                continue;
             }
-
-        } catch (IOException ex) {
-            Exceptions.printStackTrace(ex);
+            files.put(file, new StatusInfo(StatusTable.toStatus(flags), null, false));
         }
 
         return files;
     }
 
+    /*
+     * Keep the repository open while it is being scanned.
+     */
+    private static StatusTable scan(File root, List<String> paths) throws IOException {
+        Git git = Git.getInstance();
+        Repository repo = git.acquireRepository(root);
+        if (repo == null) {
+            throw new IOException("Unable to open repository " + root); // NOI18N
+        }
+        try {
+            return StatusScanner.scan(repo, paths);
+        } finally {
+            git.releaseRepository(root);
+        }
+    }
+
+    private static int indexOfParent(List<String> paths, String path) {
+        for (int i = 0; i < paths.size(); i++) {
+            String parent = paths.get(i);
+            if (parent.length() == 0 || path.equals(parent) ||
+                    (path.startsWith(parent) && path.charAt(parent.length()) == '/')) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
     /*
      * m odified
      * a dded
@@ -269,57 +258,34 @@ public static Map<File, StatusInfo> getAllStatus(File root, File dir) throws IOE
      * C opies
      */
     public static Map<File, StatusInfo> getInterestingStatus(File root, File dir) {
-        String relPath = getRelative(root, dir);
-
-        Repository repo = Git.getInstance().getRepository(root);
-        IndexDiff index;
+        return getInterestingStatus(root, Collections.singleton(dir));
+    }
 
+    /**
+     * Get the interesting status of several directories of a repository
+     * using a single scan.
+     *
+     * @param root of the repository.
+     * @param dirs to scan, including their subdirectories.
+     * @return map with the status of all files which are not up to date.
+     */
+    public static Map<File, StatusInfo> getInterestingStatus(File root, Collection<File> dirs) {
         Map<File, StatusInfo> files = new HashMap<File, StatusInfo>();
 
         try {
-            index = new IndexDiff(repo);
-            index.diff();
-
-            put(index.getAdded(), relPath, files, root,
-                    StatusInfo.STATUS_VERSIONED_ADDEDLOCALLY);
-            put(index.getRemoved(), relPath, files, root,
-                    StatusInfo.STATUS_VERSIONED_REMOVEDLOCALLY);
-            put(index.getMissing(), relPath, files, root,
-                    StatusInfo.STATUS_VERSIONED_DELETEDLOCALLY);
-            put(index.getChanged(), relPath, files, root,
-                    StatusInfo.STATUS_VERSIONED_MODIFIEDLOCALLY);
-            put(index.getModified(), relPath, files, root,
-                    StatusInfo.STATUS_VERSIONED_MODIFIEDLOCALLY);
-
-            final FileTreeIterator workTree = new FileTreeIterator(repo.getWorkDir());
-            final TreeWalk walk = new TreeWalk(repo);
-
-            walk.reset(); // drop the first empty tree
-            walk.setRecursive(true);
-            walk.addTree(workTree);
-
-            DirCache cache = DirCache.read(repo);
-
-            while (walk.next()) {
-                String path = walk.getPathString();
+            List<String> paths = new ArrayList<String>(dirs.size());
+            for (File dir : dirs) {
+                paths.add(getRelative(root, dir).replace(File.separatorChar, '/'));
+            }
+            StatusTable table = scan(root, paths);
 
-                if (relPath.length() > 0 && !path.startsWith(relPath)) {
-                    continue;
-                }
-                if (index.getAdded().contains(path) ||
-                        index.getRemoved().contains(path) ||
-                        index.getMissing().contains(path) ||
-                        index.getChanged().contains(path) ||
-                        index.getModified().contains(path)) {
+            for (int i = 0; i < table.size(); i++) {
+                int flags = table.getFlags(i);
+                if (flags == StatusTable.UPTODATE) {
                     continue;
                 }
-                DirCacheEntry entry = cache.getEntry(path);
-                if (entry != null) {
-                    continue;
-                }
-                int status = StatusInfo.STATUS_NOTVERSIONED_NEWLOCALLY;
-                File file = new File(root, path);
-                files.put(file, new StatusInfo(status, null, false));
+                File file = new File(root, table.getPath(i));
+                files.put(file, new StatusInfo(StatusTable.toStatus(flags), null, false));
             }
 
         } catch (IOException ex) {
@@ -329,43 +295,92 @@ public static Map<File, StatusInfo> getInterestingStatus(File root, File dir) {
         return files;
     }
 
-    public static StatusInfo getSingleStatus(File root, File file) {
-        Repository repo = Git.getInstance().getRepository(root);
-        IndexDiff index;
-
-        int share = SharabilityQuery.getSharability(file.getParentFile());
-        if (share == SharabilityQuery.NOT_SHARABLE ||
-                (share == SharabilityQuery.MIXED &&
-                SharabilityQuery.getSharability(file) == SharabilityQuery.NOT_SHARABLE)) {
-            return new StatusInfo(StatusInfo.STATUS_NOTVERSIONED_EXCLUDED, null, false);
-        }
-        int status = StatusInfo.STATUS_UNKNOWN;
-        String name = getRelative(root, file);
-
+    /**
+     * Get the interesting status of a whole repository grouped by
+     * directory. The result is computed by a single walk and shared until
+     * the status of the repository is invalidated, so callers can compare
+     * results by identity to find out whether a new walk was made.
+     *
+     * @param root of the repository.
+     * @return map from each directory to the files in it which are not up
+     *      to date, or null if the status could not be computed.
+     */
+    public static Map<File, Map<File, StatusInfo>> getInterestingStatusByDirectory(File root) {
         try {
-            index = new IndexDiff(repo);
-            index.diff();
+            return RepositoryStatusCache.get(root).getInterestingByDirectory(root);
         } catch (IOException ex) {
             Exceptions.printStackTrace(ex);
-            return new StatusInfo(status, null, false);
+            return null;
         }
+    }
 
-        if (index.getAdded().contains(name)) {
-            status = StatusInfo.STATUS_VERSIONED_ADDEDLOCALLY;
-        } else if (index.getRemoved().contains(name)) {
-            status = StatusInfo.STATUS_VERSIONED_REMOVEDLOCALLY;
-        } else if (index.getMissing().contains(name)) {
-            status = StatusInfo.STATUS_VERSIONED_DELETEDLOCALLY;
-        } else if (index.getChanged().contains(name)) {
-            status = StatusInfo.STATUS_VERSIONED_MODIFIEDLOCALLY;
-        } else if (index.getModified().contains(name)) {
-            status = StatusInfo.STATUS_VERSIONED_MODIFIEDLOCALLY;
-        } else {
-            status = StatusInfo.STATUS_VERSIONED_UPTODATE;
+    public static StatusInfo getSingleStatus(File root, File file) {
+        return getStatus(root, Collections.singleton(file)).get(file);
+    }
+
+    /**
+     * Get the status of several files in the same repository. The files
+     * share a single status snapshot of the repository.
+     *
+     * @param root of the repository.
+     * @param files in the working directory of the repository.
+     * @return map with the status of each file.
+     */
+    public static Map<File, StatusInfo> getStatus(File root, Collection<File> files) {
+        Map<File, StatusInfo> statuses = new HashMap<File, StatusInfo>();
+        Map<File, Integer> sharability = new HashMap<File, Integer>();
+        RepositoryStatus snapshot = null;
+
+        for (File file : files) {
+            File dir = file.getParentFile();
+            Integer share = sharability.get(dir);
+            if (share == null) {
+                share = Integer.valueOf(SharabilityQuery.getSharability(dir));
+                sharability.put(dir, share);
+            }
+            if (share.intValue() == SharabilityQuery.NOT_SHARABLE ||
+                    (share.intValue() == SharabilityQuery.MIXED &&
+                    SharabilityQuery.getSharability(file) == SharabilityQuery.NOT_SHARABLE)) {
+                statuses.put(file, new StatusInfo(StatusInfo.STATUS_NOTVERSIONED_EXCLUDED, null, false));
+                continue;
+            }
+            if (snapshot == null) {
+                try {
+                    snapshot = RepositoryStatusCache.get(root);
+                } catch (IOException ex) {
+                    Exceptions.printStackTrace(ex);
+                    for (File unknown : files) {
+                        if (!statuses.containsKey(unknown)) {
+                            statuses.put(unknown, new StatusInfo(StatusInfo.STATUS_UNKNOWN, null, false));
+                        }
+                    }
+                    return statuses;
+                }
+            }
+            String name = getRelative(root, file);
+            statuses.put(file, new StatusInfo(snapshot.getStatus(name), null, false));
         }
-        StatusInfo info = new StatusInfo(status, null, false);
 
-        return info;
+        return statuses;
+    }
+
+    /**
+     * Notify that files in the working tree of a repository have changed,
+     * so the next status lookup will see the change.
+     *
+     * @param root of the repository.
+     */
+    public static void invalidateStatus(File root) {
+        RepositoryStatusCache.invalidate(root);
+    }
+
+    /**
+     * Forget the status snapshot of a repository which has been closed.
+     *
+     * @param root of the repository.
+     */
+    public static void forgetStatus(File root) {
+        RepositoryStatusCache.remove(root);
     }
 
 }
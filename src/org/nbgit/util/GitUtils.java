@@ -413,18 +413,19 @@ public static void forceStatusRefresh(File file) {
             return;
         }
         StatusCache cache = Git.getInstance().getStatusCache();
+        File repository = Git.getInstance().getTopmostManagedParent(file);
 
+        if (repository != null) {
+            GitCommand.invalidateStatus(repository);
+        }
         cache.refreshCached(file);
-        File repository = Git.getInstance().getTopmostManagedParent(file);
         if (repository == null) {
             return;
         }
         if (file.isDirectory()) {
             Map<File, StatusInfo> interestingFiles;
             interestingFiles = GitCommand.getInterestingStatus(repository, file);
-            for (Map.Entry<File, StatusInfo> entry : interestingFiles.entrySet()) {
-                cache.refreshFileStatus(entry.getKey(), entry.getValue(), null);
-            }
+            cache.applyStatusBatch(interestingFiles);
         }
     }
 
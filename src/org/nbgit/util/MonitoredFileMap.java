@@ -39,11 +39,7 @@
 import java.io.File;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 import org.openide.filesystems.FileAttributeEvent;
 import org.openide.filesystems.FileChangeAdapter;
 import org.openide.filesystems.FileEvent;
@@ -51,12 +47,20 @@
 import org.openide.filesystems.FileRenameEvent;
 import org.openide.filesystems.FileUtil;
 
+/**
+ * Map of values read from files, such as ignore patterns. Entries are
+ * removed when their file changes, either through the file system
+ * events of the IDE or, for changes made outside the IDE, when the
+ * shared {@link FileWatcher} notices them.
+ */
 public class MonitoredFileMap<T> {
 
+    private final static int DEFAULT_DELAY = 10000;
+
     private final Map<String, T> map = Collections.synchronizedMap(new HashMap<String, T>());
     private final int delay;
     private final FileMonitor monitor;
-    private FileMonitorTask monitorTask;
+    private volatile int removals;
 
     private MonitoredFileMap(FileMonitor monitor, int delay) {
         this.monitor = monitor;
@@ -65,7 +69,7 @@ private MonitoredFileMap(FileMonitor monitor, int delay) {
 
     private MonitoredFileMap() {
         this.monitor = new FileMonitorImpl();
-        this.delay = FileMonitorTask.DEFAULT_DELAY;
+        this.delay = DEFAULT_DELAY;
     }
 
     public static <T> MonitoredFileMap<T> create() {
@@ -86,21 +90,52 @@ public void put(File file, T value) {
         final String key = file.getPath();
         synchronized (map) {
             map.put(key, value);
-            if (monitorTask == null)
-                monitorTask = new FileMonitorTask(delay);
         }
+        FileWatcher.getDefault().watch(this, file, delay);
         monitor.monitor(file);
     }
 
+    /**
+     * Remove all entries and stop watching their files.
+     */
+    public void clear() {
+        String[] paths;
+        synchronized (map) {
+            paths = map.keySet().toArray(new String[map.size()]);
+        }
+        for (String path : paths) {
+            remove(new File(path));
+        }
+    }
+
     public T remove(File file) {
         synchronized (map) {
             T value = map.remove(file.getPath());
-            if (map.isEmpty())
-                monitorTask = null;
+            if (value != null) {
+                removals++;
+                FileWatcher.getDefault().unwatch(this, file);
+            }
             return value;
         }
     }
 
+    /**
+     * Called by the {@link FileWatcher} when a file has changed.
+     */
+    void fileChanged(File file) {
+        remove(file);
+        monitor.refresh(file);
+    }
+
+    /**
+     * Get the number of entries removed so far, either explicitly or
+     * because the file changed. Allows to detect when values derived
+     * from entries of the map are stale.
+     */
+    public int getRemovalCount() {
+        return removals;
+    }
+
     public int size() {
         synchronized (map) {
             return map.size();
@@ -114,38 +149,6 @@ public String toString() {
         return builder.toString();
     }
 
-    private class FileMonitorTask extends TimerTask {
-
-        private final static int DEFAULT_DELAY = 10000;
-        private final Timer timer = new Timer();
-        private long lastModified;
-
-        public FileMonitorTask(int delay) {
-            timer.schedule(this, delay, delay);
-        }
-
-        @Override
-        public void run() {
-            Set<File> filesToRefresh = new HashSet<File>();
-            Set<String> paths = map.keySet();
-
-            synchronized (map) {
-                if (monitorTask != this)
-                    cancel();
-                for (String path : paths) {
-                    final File file = new File(path);
-                    if (!file.exists() || file.lastModified() < lastModified) {
-                        filesToRefresh.add(file);
-                    }
-                }
-            }
-            for (File file : filesToRefresh) {
-                monitor.refresh(file);
-            }
-            lastModified = System.currentTimeMillis();
-        }
-    }
-
     public interface FileMonitor {
 
         void monitor(File file);
@@ -161,7 +164,9 @@ public void monitor(File file) {
         }
 
         public void refresh(File file) {
-            FileUtil.toFileObject(file).refresh(true);
+            FileObject fileObject = FileUtil.toFileObject(file);
+            if (fileObject != null)
+                fileObject.refresh(true);
         }
 
         private void evictFile(FileObject file) {
@@ -0,0 +1,149 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2009 Jonas Fonseca <fonseca@diku.dk>
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common
+ * Development and Distribution License("CDDL") (collectively, the
+ * "License"). You may not use this file except in compliance with the
+ * License. You can obtain a copy of the License at
+ * http://www.netbeans.org/cddl-gplv2.html. See the License for the
+ * specific language governing permissions and limitations under the
+ * License.  When distributing the software, include this License Header
+ * Notice in each file.
+ *
+ * This particular file is subject to the "Classpath" exception as provided
+ * by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code. If applicable, add the following below the
+ * License Header, with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL
+ * or only the GPL Version 2, indicate your decision by adding
+ * "[Contributor] elects to include this software in this distribution
+ * under the [CDDL or GPL Version 2] license." If you do not indicate a
+ * single choice of license, a recipient has the option to distribute
+ * your version of this file under either the CDDL, the GPL Version 2 or
+ * to extend the choice of license to its licensees as provided above.
+ * However, if you add GPL Version 2 code and therefore, elected the GPL
+ * Version 2 license, then the option applies only if the new code is
+ * made subject to such option by the copyright holder.
+ */
+package org.nbgit.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.eclipse.jgit.lib.Repository;
+import org.nbgit.StatusInfo;
+
+/**
+ * Immutable result of one status scan of a whole repository.
+ *
+ * A snapshot is tagged with the generation it was computed for and the
+ * stamp of the index file at that time, so it can tell when it has gone
+ * stale.
+ */
+final class RepositoryStatus {
+
+    private final long generation;
+    private final File indexFile;
+    private final long indexModified;
+    private final long indexLength;
+    private final StatusTable table;
+    private Map<File, Map<File, StatusInfo>> interestingByDirectory;
+
+    private RepositoryStatus(long generation, File indexFile, long indexModified, long indexLength, StatusTable table) {
+        this.generation = generation;
+        this.indexFile = indexFile;
+        this.indexModified = indexModified;
+        this.indexLength = indexLength;
+        this.table = table;
+    }
+
+    public static RepositoryStatus create(Repository repo, long generation) throws IOException {
+        File indexFile = new File(repo.getDirectory(), "index"); // NOI18N
+        long indexModified = indexFile.lastModified();
+        long indexLength = indexFile.length();
+        StatusTable table = StatusScanner.scan(repo, "");
+        return new RepositoryStatus(generation, indexFile, indexModified, indexLength, table);
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Check whether the index has been rewritten since the snapshot
+     * was taken.
+     */
+    public boolean isIndexCurrent() {
+        return indexFile.lastModified() == indexModified &&
+                indexFile.length() == indexLength;
+    }
+
+    /**
+     * Get the files which are not up to date grouped by the directory
+     * containing them. Every directory of the working tree which was
+     * visited by the scan has an entry, possibly an empty map.
+     *
+     * @param root of the working tree the snapshot was taken of.
+     */
+    public synchronized Map<File, Map<File, StatusInfo>> getInterestingByDirectory(File root) {
+        if (interestingByDirectory != null) {
+            return interestingByDirectory;
+        }
+        Map<String, File> dirs = new HashMap<String, File>();
+        Map<File, Map<File, StatusInfo>> byDirectory = new HashMap<File, Map<File, StatusInfo>>();
+        byDirectory.put(root, new HashMap<File, StatusInfo>());
+        dirs.put("", root); // NOI18N
+
+        for (int i = 0; i < table.size(); i++) {
+            String path = table.getPath(i);
+            int slash = path.lastIndexOf('/');
+            String dirPath = slash < 0 ? "" : path.substring(0, slash); // NOI18N
+            File dir = getDirectory(root, dirPath, dirs, byDirectory);
+            int flags = table.getFlags(i);
+            if (flags == StatusTable.UPTODATE) {
+                continue;
+            }
+            File file = new File(dir, path.substring(slash + 1));
+            byDirectory.get(dir).put(file, new StatusInfo(StatusTable.toStatus(flags), null, false));
+        }
+        interestingByDirectory = Collections.unmodifiableMap(byDirectory);
+        return interestingByDirectory;
+    }
+
+    private static File getDirectory(File root, String dirPath, Map<String, File> dirs,
+            Map<File, Map<File, StatusInfo>> byDirectory) {
+        File dir = dirs.get(dirPath);
+        if (dir == null) {
+            int slash = dirPath.lastIndexOf('/');
+            File parent = getDirectory(root, slash < 0 ? "" : dirPath.substring(0, slash), dirs, byDirectory); // NOI18N
+            dir = new File(parent, dirPath.substring(slash + 1));
+            dirs.put(dirPath, dir);
+            byDirectory.put(dir, new HashMap<File, StatusInfo>());
+        }
+        return dir;
+    }
+
+    /**
+     * Get the status of a path relative to the repository root. Uses the
+     * same precedence as the status of whole directories, paths which
+     * were not seen by the scan are up to date.
+     */
+    public int getStatus(String path) {
+        int flags = table.getFlags(path);
+        if (flags == 0) {
+            return StatusInfo.STATUS_VERSIONED_UPTODATE;
+        }
+        return StatusTable.toStatus(flags);
+    }
+
+}
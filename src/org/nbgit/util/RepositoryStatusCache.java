@@ -0,0 +1,178 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2009 Jonas Fonseca <fonseca@diku.dk>
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common
+ * Development and Distribution License("CDDL") (collectively, the
+ * "License"). You may not use this file except in compliance with the
+ * License. You can obtain a copy of the License at
+ * http://www.netbeans.org/cddl-gplv2.html. See the License for the
+ * specific language governing permissions and limitations under the
+ * License.  When distributing the software, include this License Header
+ * Notice in each file.
+ *
+ * This particular file is subject to the "Classpath" exception as provided
+ * by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code. If applicable, add the following below the
+ * License Header, with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL
+ * or only the GPL Version 2, indicate your decision by adding
+ * "[Contributor] elects to include this software in this distribution
+ * under the [CDDL or GPL Version 2] license." If you do not indicate a
+ * single choice of license, a recipient has the option to distribute
+ * your version of this file under either the CDDL, the GPL Version 2 or
+ * to extend the choice of license to its licensees as provided above.
+ * However, if you add GPL Version 2 code and therefore, elected the GPL
+ * Version 2 license, then the option applies only if the new code is
+ * made subject to such option by the copyright holder.
+ */
+package org.nbgit.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import org.nbgit.Git;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Shares one status scan per repository between status lookups.
+ *
+ * Each repository has a generation counter which is bumped whenever
+ * something in its working tree is known to have changed. A snapshot is
+ * reused as long as it was computed for the current generation and the
+ * index has not been rewritten. Callers arriving while a scan for the
+ * current generation is being computed wait for that scan instead of
+ * starting their own.
+ */
+final class RepositoryStatusCache {
+
+    private static final Map<File, State> states = new HashMap<File, State>();
+
+    private RepositoryStatusCache() {
+    }
+
+    /**
+     * Get a snapshot of the repository status which is not older than
+     * the last invalidation.
+     */
+    public static RepositoryStatus get(final File root) throws IOException {
+        final State state = getState(root);
+        FutureTask<RepositoryStatus> task;
+        boolean owner = false;
+
+        synchronized (state) {
+            final long generation = state.generation;
+            RepositoryStatus snapshot = state.snapshot;
+            if (snapshot != null && snapshot.getGeneration() == generation &&
+                    snapshot.isIndexCurrent()) {
+                return snapshot;
+            }
+            if (state.pending != null && state.pendingGeneration == generation) {
+                task = state.pending;
+            } else {
+                task = new FutureTask<RepositoryStatus>(new Callable<RepositoryStatus>() {
+
+                    public RepositoryStatus call() throws IOException {
+                        Repository repository = Git.getInstance().acquireRepository(root);
+                        if (repository == null) {
+                            throw new IOException("Unable to open repository " + root); // NOI18N
+                        }
+                        try {
+                            return RepositoryStatus.create(repository, generation);
+                        } finally {
+                            Git.getInstance().releaseRepository(root);
+                        }
+                    }
+                });
+                state.pending = task;
+                state.pendingGeneration = generation;
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            task.run();
+        }
+
+        try {
+            RepositoryStatus snapshot = task.get();
+            synchronized (state) {
+                if (state.snapshot == null ||
+                        state.snapshot.getGeneration() <= snapshot.getGeneration()) {
+                    state.snapshot = snapshot;
+                }
+            }
+            return snapshot;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex.getMessage());
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(String.valueOf(cause));
+        } finally {
+            if (owner) {
+                synchronized (state) {
+                    if (state.pending == task) {
+                        state.pending = null;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Mark all snapshots of the repository as stale.
+     */
+    public static void invalidate(File root) {
+        State state = getState(root);
+        synchronized (state) {
+            state.generation++;
+        }
+    }
+
+    /**
+     * Drop the state of a repository, for example after it was closed.
+     */
+    public static void remove(File root) {
+        synchronized (states) {
+            states.remove(root);
+        }
+    }
+
+    private static State getState(File root) {
+        synchronized (states) {
+            State state = states.get(root);
+            if (state == null) {
+                state = new State();
+                states.put(root, state);
+            }
+            return state;
+        }
+    }
+
+    private static class State {
+
+        private long generation;
+        private RepositoryStatus snapshot;
+        private FutureTask<RepositoryStatus> pending;
+        private long pendingGeneration;
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2009 Jonas Fonseca <fonseca@diku.dk>
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common
+ * Development and Distribution License("CDDL") (collectively, the
+ * "License"). You may not use this file except in compliance with the
+ * License. You can obtain a copy of the License at
+ * http://www.netbeans.org/cddl-gplv2.html. See the License for the
+ * specific language governing permissions and limitations under the
+ * License.  When distributing the software, include this License Header
+ * Notice in each file.
+ *
+ * This particular file is subject to the "Classpath" exception as provided
+ * by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code. If applicable, add the following below the
+ * License Header, with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL
+ * or only the GPL Version 2, indicate your decision by adding
+ * "[Contributor] elects to include this software in this distribution
+ * under the [CDDL or GPL Version 2] license." If you do not indicate a
+ * single choice of license, a recipient has the option to distribute
+ * your version of this file under either the CDDL, the GPL Version 2 or
+ * to extend the choice of license to its licensees as provided above.
+ * However, if you add GPL Version 2 code and therefore, elected the GPL
+ * Version 2 license, then the option applies only if the new code is
+ * made subject to such option by the copyright holder.
+ */
+package org.nbgit.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Computes the status of a subtree of a repository.
+ *
+ * HEAD, the index and the working tree are walked in parallel, limited
+ * to the requested path so that only that part of the working tree is
+ * visited. A tracked file is considered unchanged when its size and
+ * modification time match what the index recorded for it; its content
+ * is only hashed when they differ or when the entry is racily clean.
+ *
+ * The flags recorded for each path follow the same conventions as the
+ * sets of JGit's IndexDiff, with paths relative to the repository root.
+ */
+final class StatusScanner {
+
+    private static final int HEAD = 0;
+    private static final int INDEX = 1;
+    private static final int WORKTREE = 2;
+    private final Repository repo;
+    private final boolean trustFileMode;
+    private final StatusTable.Builder table = new StatusTable.Builder();
+
+    private StatusScanner(Repository repo) {
+        this.repo = repo;
+        this.trustFileMode = FS.INSTANCE.supportsExecute() &&
+                repo.getConfig().getBoolean("core", null, "filemode", true); // NOI18N
+    }
+
+    /**
+     * Scan a part of a repository.
+     *
+     * @param repo to scan.
+     * @param path relative to the repository root using '/' as separator,
+     *        or the empty string to scan the whole repository.
+     * @return table with the flags of all paths found in the scanned part.
+     */
+    public static StatusTable scan(Repository repo, String path) throws IOException {
+        return scan(repo, Collections.singleton(path));
+    }
+
+    /**
+     * Scan several parts of a repository in a single walk.
+     *
+     * @param repo to scan.
+     * @param paths relative to the repository root using '/' as separator.
+     *        If one of them is the empty string the whole repository is
+     *        scanned.
+     * @return table with the flags of all paths found in the scanned parts.
+     */
+    public static StatusTable scan(Repository repo, Collection<String> paths) throws IOException {
+        StatusScanner scanner = new StatusScanner(repo);
+        scanner.walk(paths);
+        return scanner.table.build();
+    }
+
+    private void walk(Collection<String> paths) throws IOException {
+        File indexFile = new File(repo.getDirectory(), "index"); // NOI18N
+        long indexModified = indexFile.lastModified();
+        DirCache cache = DirCache.read(repo);
+        TreeWalk walk = new TreeWalk(repo);
+        ObjectId head = repo.resolve(Constants.HEAD + "^{tree}"); // NOI18N
+
+        walk.reset();
+        if (head != null) {
+            walk.addTree(head);
+        } else {
+            walk.addTree(new EmptyTreeIterator());
+        }
+        walk.addTree(new DirCacheIterator(cache));
+        walk.addTree(new FileTreeIterator(repo.getWorkDir()));
+        walk.setRecursive(true);
+        if (!paths.contains("")) { // NOI18N
+            walk.setFilter(paths.size() == 1
+                    ? PathFilter.create(paths.iterator().next())
+                    : PathFilterGroup.createFromStrings(paths));
+        }
+
+        while (walk.next()) {
+            String name = walk.getPathString();
+            boolean inHead = walk.getRawMode(HEAD) != 0;
+            boolean inWorkTree = walk.getRawMode(WORKTREE) != 0;
+            int flags = 0;
+
+            if (walk.getRawMode(INDEX) == 0) {
+                if (inHead) {
+                    flags = StatusTable.REMOVED;
+                } else if (inWorkTree) {
+                    flags = StatusTable.UNTRACKED;
+                }
+            } else {
+                if (!inHead) {
+                    flags |= StatusTable.ADDED;
+                } else if (!walk.idEqual(HEAD, INDEX)) {
+                    flags |= StatusTable.CHANGED;
+                }
+
+                if (!inWorkTree) {
+                    flags |= StatusTable.MISSING;
+                } else {
+                    DirCacheEntry entry = walk.getTree(INDEX, DirCacheIterator.class).getDirCacheEntry();
+                    WorkingTreeIterator file = walk.getTree(WORKTREE, WorkingTreeIterator.class);
+                    if (isModified(entry, file, indexModified)) {
+                        flags |= StatusTable.MODIFIED;
+                    } else if (flags == 0) {
+                        flags = StatusTable.UPTODATE;
+                    }
+                }
+            }
+
+            if (flags != 0) {
+                table.add(name, flags);
+            }
+        }
+    }
+
+    private boolean isModified(DirCacheEntry entry, WorkingTreeIterator file, long indexModified) {
+        if (entry == null || entry.isAssumeValid()) {
+            return false;
+        }
+        if (trustFileMode && isFile(entry.getRawMode()) && isFile(file.getEntryRawMode()) &&
+                FileMode.EXECUTABLE_FILE.equals(entry.getRawMode()) !=
+                FileMode.EXECUTABLE_FILE.equals(file.getEntryRawMode())) {
+            return true;
+        }
+        if (entry.getLength() != (int) file.getEntryLength()) {
+            return true;
+        }
+        long lastModified = entry.getLastModified();
+        if (lastModified == file.getEntryLastModified() && lastModified < indexModified) {
+            return false;
+        }
+        return !entry.getObjectId().equals(file.getEntryObjectId());
+    }
+
+    private static boolean isFile(int mode) {
+        return FileMode.REGULAR_FILE.equals(mode) || FileMode.EXECUTABLE_FILE.equals(mode);
+    }
+
+}
@@ -0,0 +1,231 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2009 Jonas Fonseca <fonseca@diku.dk>
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common
+ * Development and Distribution License("CDDL") (collectively, the
+ * "License"). You may not use this file except in compliance with the
+ * License. You can obtain a copy of the License at
+ * http://www.netbeans.org/cddl-gplv2.html. See the License for the
+ * specific language governing permissions and limitations under the
+ * License.  When distributing the software, include this License Header
+ * Notice in each file.
+ *
+ * This particular file is subject to the "Classpath" exception as provided
+ * by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code. If applicable, add the following below the
+ * License Header, with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL
+ * or only the GPL Version 2, indicate your decision by adding
+ * "[Contributor] elects to include this software in this distribution
+ * under the [CDDL or GPL Version 2] license." If you do not indicate a
+ * single choice of license, a recipient has the option to distribute
+ * your version of this file under either the CDDL, the GPL Version 2 or
+ * to extend the choice of license to its licensees as provided above.
+ * However, if you add GPL Version 2 code and therefore, elected the GPL
+ * Version 2 license, then the option applies only if the new code is
+ * made subject to such option by the copyright holder.
+ */
+package org.nbgit.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import org.nbgit.StatusInfo;
+
+/**
+ * Table mapping repository relative paths to status flags.
+ *
+ * Paths are kept sorted, as produced by a tree walk, so a directory can
+ * be classified in one pass over the table. Looking up a single path is
+ * one probe into a hash index instead of one lookup per status set.
+ */
+final class StatusTable {
+
+    /** In the index but not in HEAD. */
+    public static final int ADDED = 1;
+    /** In HEAD but not in the index. */
+    public static final int REMOVED = 2;
+    /** In the index but not in the working tree. */
+    public static final int MISSING = 4;
+    /** Index content differs from HEAD. */
+    public static final int CHANGED = 8;
+    /** Working tree content differs from the index. */
+    public static final int MODIFIED = 16;
+    /** Only in the working tree. */
+    public static final int UNTRACKED = 32;
+    /** Identical in HEAD, the index and the working tree. */
+    public static final int UPTODATE = 64;
+    private final String[] paths;
+    private final int[] flags;
+    private final int size;
+    private final int[] slots;
+
+    private StatusTable(String[] paths, int[] flags, int size) {
+        this.paths = paths;
+        this.flags = flags;
+        this.size = size;
+        this.slots = createSlots(paths, size);
+    }
+
+    /**
+     * Create an open addressing hash index into the sorted arrays. Slots
+     * hold the table index plus one, with zero marking an empty slot.
+     */
+    private static int[] createSlots(String[] paths, int size) {
+        int capacity = 16;
+        while (capacity < size * 2) {
+            capacity <<= 1;
+        }
+        int[] slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = mix(paths[i].hashCode()) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+        return slots;
+    }
+
+    private static int mix(int hash) {
+        hash ^= (hash >>> 16);
+        return hash * 0x85ebca6b;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getPath(int index) {
+        return paths[index];
+    }
+
+    public int getFlags(int index) {
+        return flags[index];
+    }
+
+    /**
+     * Get the flags of a path.
+     *
+     * @return the flags or 0 if the path is not in the table.
+     */
+    public int getFlags(String path) {
+        int index = indexOf(path);
+        return index < 0 ? 0 : flags[index];
+    }
+
+    /**
+     * Find the index of a path.
+     *
+     * @return the index or a negative value if the path is not in the table.
+     */
+    public int indexOf(String path) {
+        int mask = slots.length - 1;
+        int slot = mix(path.hashCode()) & mask;
+        int index;
+        while ((index = slots[slot]) != 0) {
+            if (paths[index - 1].equals(path)) {
+                return index - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Map flags to a file status. Working tree and index modifications
+     * take precedence over deletions, which take precedence over
+     * additions.
+     */
+    public static int toStatus(int flags) {
+        if ((flags & (CHANGED | MODIFIED)) != 0) {
+            return StatusInfo.STATUS_VERSIONED_MODIFIEDLOCALLY;
+        } else if ((flags & MISSING) != 0) {
+            return StatusInfo.STATUS_VERSIONED_DELETEDLOCALLY;
+        } else if ((flags & REMOVED) != 0) {
+            return StatusInfo.STATUS_VERSIONED_REMOVEDLOCALLY;
+        } else if ((flags & ADDED) != 0) {
+            return StatusInfo.STATUS_VERSIONED_ADDEDLOCALLY;
+        } else if ((flags & UNTRACKED) != 0) {
+            return StatusInfo.STATUS_NOTVERSIONED_NEWLOCALLY;
+        } else if ((flags & UPTODATE) != 0) {
+            return StatusInfo.STATUS_VERSIONED_UPTODATE;
+        }
+        return StatusInfo.STATUS_UNKNOWN;
+    }
+
+    /**
+     * Builds a table. Paths are expected to be added in sorted order, as
+     * produced by a tree walk, but are sorted when needed.
+     */
+    public static class Builder {
+
+        private String[] paths = new String[64];
+        private int[] flags = new int[64];
+        private int size;
+        private boolean sorted = true;
+
+        public Builder add(String path, int pathFlags) {
+            if (size == paths.length) {
+                String[] newPaths = new String[size * 2];
+                int[] newFlags = new int[size * 2];
+                System.arraycopy(paths, 0, newPaths, 0, size);
+                System.arraycopy(flags, 0, newFlags, 0, size);
+                paths = newPaths;
+                flags = newFlags;
+            }
+            if (size > 0 && sorted && paths[size - 1].compareTo(path) >= 0) {
+                sorted = false;
+            }
+            paths[size] = path;
+            flags[size] = pathFlags;
+            size++;
+            return this;
+        }
+
+        public StatusTable build() {
+            if (!sorted) {
+                sort();
+            }
+            return new StatusTable(paths, flags, size);
+        }
+
+        private void sort() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = Integer.valueOf(i);
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+
+                public int compare(Integer a, Integer b) {
+                    return paths[a.intValue()].compareTo(paths[b.intValue()]);
+                }
+            });
+            String[] sortedPaths = new String[size];
+            int[] sortedFlags = new int[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                int from = order[i].intValue();
+                if (count > 0 && sortedPaths[count - 1].equals(paths[from])) {
+                    sortedFlags[count - 1] |= flags[from];
+                    continue;
+                }
+                sortedPaths[count] = paths[from];
+                sortedFlags[count] = flags[from];
+                count++;
+            }
+            paths = sortedPaths;
+            flags = sortedFlags;
+            size = count;
+        }
+    }
+
+}
@@ -0,0 +1,416 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2009 Jonas Fonseca <fonseca@diku.dk>
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common
+ * Development and Distribution License("CDDL") (collectively, the
+ * "License"). You may not use this file except in compliance with the
+ * License. You can obtain a copy of the License at
+ * http://www.netbeans.org/cddl-gplv2.html. See the License for the
+ * specific language governing permissions and limitations under the
+ * License.  When distributing the software, include this License Header
+ * Notice in each file.
+ *
+ * This particular file is subject to the "Classpath" exception as provided
+ * by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code. If applicable, add the following below the
+ * License Header, with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL
+ * or only the GPL Version 2, indicate your decision by adding
+ * "[Contributor] elects to include this software in this distribution
+ * under the [CDDL or GPL Version 2] license." If you do not indicate a
+ * single choice of license, a recipient has the option to distribute
+ * your version of this file under either the CDDL, the GPL Version 2 or
+ * to extend the choice of license to its licensees as provided above.
+ * However, if you add GPL Version 2 code and therefore, elected the GPL
+ * Version 2 license, then the option applies only if the new code is
+ * made subject to such option by the copyright holder.
+ */
+package org.nbgit.util.exclude;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * A pattern for {@link FnMatch} parsed once into an array of opcodes.
+ * Matching does not allocate and backtracks iteratively to the last
+ * star only, so a pattern with a single star is matched in time linear
+ * in the length of the string.
+ */
+public final class CompiledFnMatch {
+
+    /** Disable backslash escaping. */
+    public static final int NOESCAPE = 1;
+    /** Slash must be matched by slash. */
+    public static final int PATHNAME = 2;
+    /** Period must be matched by period. */
+    public static final int PERIOD = 4;
+    /** Ignore /<tail> after Imatch. */
+    public static final int LEADING_DIR = 8;
+    /** Case insensitive search. */
+    public static final int CASEFOLD = 16;
+
+    static final int OP_LITERAL = 0;
+    static final int OP_ANY = 1;
+    static final int OP_RANGE = 2;
+    /** A star that is not followed by anything special. */
+    static final int OP_STAR = 3;
+    /** A star followed by a slash when matching path names. */
+    static final int OP_STAR_SLASH = 4;
+    /** A star ending the pattern. */
+    static final int OP_STAR_END = 5;
+    /** A range that never matches. */
+    static final int OP_NEVER = 6;
+
+    private final String pattern;
+    private final int flags;
+    private final int[] code;
+    private final char[][] ranges;
+    private final boolean[] negated;
+
+    private CompiledFnMatch(String pattern, int flags, int[] code,
+            char[][] ranges, boolean[] negated) {
+        this.pattern = pattern;
+        this.flags = flags;
+        this.code = code;
+        this.ranges = ranges;
+        this.negated = negated;
+    }
+
+    public static int toMask(EnumSet<FnMatch.Flag> flags) {
+        int mask = 0;
+        for (FnMatch.Flag flag : flags) {
+            switch (flag) {
+                case NOESCAPE:
+                    mask |= NOESCAPE;
+                    break;
+                case PATHNAME:
+                    mask |= PATHNAME;
+                    break;
+                case PERIOD:
+                    mask |= PERIOD;
+                    break;
+                case LEADING_DIR:
+                    mask |= LEADING_DIR;
+                    break;
+                case CASEFOLD:
+                    mask |= CASEFOLD;
+                    break;
+            }
+        }
+        return mask;
+    }
+
+    public static CompiledFnMatch compile(String pattern, int flags) {
+        return new Compiler(pattern, flags).compile();
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean matches(String string) {
+        return matches(string, 0);
+    }
+
+    public boolean matches(String string, int from) {
+        boolean pathname = (flags & PATHNAME) != 0;
+        boolean period = (flags & PERIOD) != 0;
+        int length = string.length();
+        int pc = 0;
+        int pos = from;
+        int starPc = -1;
+        int starPos = -1;
+
+        while (true) {
+            boolean ok;
+            if (pc == code.length) {
+                if (pos == length ||
+                        (flags & LEADING_DIR) != 0 && pos < length && string.charAt(pos) == '/') {
+                    return true;
+                }
+                ok = false;
+            } else {
+                int op = code[pc] & 0xff;
+                int operand = code[pc] >>> 8;
+                switch (op) {
+                    case OP_LITERAL:
+                        ok = pos < length && equals((char) operand, string.charAt(pos));
+                        break;
+                    case OP_ANY:
+                        ok = pos < length && !(pathname && string.charAt(pos) == '/') &&
+                                !hasLeadingPeriod(string, pos, period);
+                        break;
+                    case OP_RANGE:
+                        ok = pos < length && !(pathname && string.charAt(pos) == '/') &&
+                                !hasLeadingPeriod(string, pos, period) &&
+                                inRange(operand, string.charAt(pos));
+                        break;
+                    case OP_STAR_END:
+                        if (hasLeadingPeriod(string, pos, period)) {
+                            ok = false;
+                            break;
+                        }
+                        if (!pathname || (flags & LEADING_DIR) != 0 ||
+                                string.indexOf('/', pos) == -1) {
+                            return true;
+                        }
+                        ok = false;
+                        break;
+                    case OP_STAR_SLASH:
+                        if (hasLeadingPeriod(string, pos, period)) {
+                            ok = false;
+                            break;
+                        }
+                        int slash = string.indexOf('/', pos);
+                        if (slash == -1) {
+                            ok = false;
+                            break;
+                        }
+                        pos = slash;
+                        pc++;
+                        continue;
+                    case OP_STAR:
+                        if (hasLeadingPeriod(string, pos, period)) {
+                            ok = false;
+                            break;
+                        }
+                        /* Further leading periods are not special. */
+                        period = false;
+                        starPc = ++pc;
+                        starPos = pos;
+                        continue;
+                    default:
+                        ok = false;
+                }
+                if (ok) {
+                    pc++;
+                    pos++;
+                    continue;
+                }
+            }
+
+            /* Let the last star consume one more character. */
+            if (starPc == -1 || starPos >= length ||
+                    (pathname && string.charAt(starPos) == '/')) {
+                return false;
+            }
+            starPos++;
+            if (starPos >= length) {
+                return false;
+            }
+            pc = starPc;
+            pos = starPos;
+        }
+    }
+
+    private boolean equals(char c, char test) {
+        return c == test || (flags & CASEFOLD) != 0 &&
+                Character.toLowerCase(c) == Character.toLowerCase(test);
+    }
+
+    private boolean hasLeadingPeriod(String string, int pos, boolean period) {
+        if (!period || pos >= string.length()) {
+            return false;
+        }
+        return (pos == 0 || ((flags & PATHNAME) != 0 && string.charAt(pos - 1) == '/')) &&
+                string.charAt(pos) == '.';
+    }
+
+    private boolean inRange(int index, char test) {
+        if ((flags & CASEFOLD) != 0) {
+            test = Character.toLowerCase(test);
+        }
+        char[] range = ranges[index];
+        boolean ok = false;
+        for (int i = 0; i < range.length; i += 2) {
+            if (range[i] <= test && test <= range[i + 1]) {
+                ok = true;
+                break;
+            }
+        }
+        return ok != negated[index];
+    }
+
+    int getOpCount() {
+        return code.length;
+    }
+
+    int getOp(int pc) {
+        return code[pc] & 0xff;
+    }
+
+    char getLiteral(int pc) {
+        return (char) (code[pc] >>> 8);
+    }
+
+    char[] getRange(int pc) {
+        return ranges[code[pc] >>> 8];
+    }
+
+    boolean isRangeNegated(int pc) {
+        return negated[code[pc] >>> 8];
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+    private static class Compiler {
+
+        private final String pattern;
+        private final int flags;
+        private final List<Integer> code = new ArrayList<Integer>();
+        private final List<char[]> ranges = new ArrayList<char[]>();
+        private final List<Boolean> negated = new ArrayList<Boolean>();
+
+        Compiler(String pattern, int flags) {
+            this.pattern = pattern;
+            this.flags = flags;
+        }
+
+        /**
+         * Parse the pattern the same way {@link FnMatch} does while
+         * matching.
+         */
+        CompiledFnMatch compile() {
+            boolean pathname = (flags & PATHNAME) != 0;
+            int pos = 0;
+
+            while (pos < pattern.length()) {
+                char c = pattern.charAt(pos++);
+                switch (c) {
+                    case '?':
+                        add(OP_ANY, 0);
+                        continue;
+                    case '*':
+                        while (pos < pattern.length() && pattern.charAt(pos) == '*') {
+                            pos++;
+                        }
+                        if (pos == pattern.length()) {
+                            add(OP_STAR_END, 0);
+                        } else if (pathname && pattern.charAt(pos) == '/') {
+                            add(OP_STAR_SLASH, 0);
+                        } else {
+                            add(OP_STAR, 0);
+                        }
+                        continue;
+                    case '[':
+                        int end = parseRange(pos);
+                        if (end == -1) {
+                            /* Not a good range, treat as normal text. */
+                            break;
+                        }
+                        pos = end;
+                        continue;
+                    case '\\':
+                        if ((flags & NOESCAPE) == 0 && pos < pattern.length()) {
+                            c = pattern.charAt(pos++);
+                        }
+                        break;
+                }
+                add(OP_LITERAL, c);
+            }
+
+            int[] codeArray = new int[code.size()];
+            for (int i = 0; i < codeArray.length; i++) {
+                codeArray[i] = code.get(i);
+            }
+            char[][] rangeArray = ranges.toArray(new char[ranges.size()][]);
+            boolean[] negatedArray = new boolean[negated.size()];
+            for (int i = 0; i < negatedArray.length; i++) {
+                negatedArray[i] = negated.get(i);
+            }
+            return new CompiledFnMatch(pattern, flags, codeArray, rangeArray, negatedArray);
+        }
+
+        /**
+         * Parse a bracket expression starting after the '['.
+         *
+         * @return the position after the closing ']' or -1 if the range
+         *      is not valid and the '[' is a normal character.
+         */
+        private int parseRange(int pos) {
+            boolean noescape = (flags & NOESCAPE) != 0;
+            boolean casefold = (flags & CASEFOLD) != 0;
+            if (pos >= pattern.length()) {
+                return -1;
+            }
+            char c = pattern.charAt(pos);
+            boolean negate = c == '!' || c == '^';
+            if (negate) {
+                pos++;
+            }
+
+            StringBuilder range = new StringBuilder();
+            while (true) {
+                if (pos >= pattern.length()) {
+                    return -1;
+                }
+                c = pattern.charAt(pos++);
+                if (c == ']') {
+                    break;
+                }
+                if (c == '\\' && !noescape) {
+                    if (pos >= pattern.length()) {
+                        return -1;
+                    }
+                    c = pattern.charAt(pos++);
+                }
+                if (c == '/' && (flags & PATHNAME) != 0) {
+                    /* The range never matches, skip to its end. */
+                    int end = pattern.indexOf(']', pos);
+                    add(OP_NEVER, 0);
+                    return end == -1 ? pattern.length() : end + 1;
+                }
+                if (casefold) {
+                    c = Character.toLowerCase(c);
+                }
+                if (pos >= pattern.length()) {
+                    return -1;
+                }
+                char c2;
+                if (pattern.charAt(pos) == '-' && pos + 1 < pattern.length() &&
+                        (c2 = pattern.charAt(pos + 1)) != ']') {
+                    pos += 2;
+                    if (c2 == '\\' && !noescape) {
+                        if (pos >= pattern.length()) {
+                            return -1;
+                        }
+                        c = pattern.charAt(pos++);
+                    }
+                    if (casefold) {
+                        c2 = Character.toLowerCase(c2);
+                    }
+                    range.append(c).append(c2);
+                } else {
+                    range.append(c).append(c);
+                }
+            }
+
+            char[] chars = new char[range.length()];
+            range.getChars(0, chars.length, chars, 0);
+            add(OP_RANGE, ranges.size());
+            ranges.add(chars);
+            negated.add(negate);
+            return pos;
+        }
+
+        private void add(int op, int operand) {
+            code.add(op | operand << 8);
+        }
+    }
+}
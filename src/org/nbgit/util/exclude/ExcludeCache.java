@@ -36,6 +36,9 @@
 package org.nbgit.util.exclude;
 
 import java.io.File;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Vector;
 import org.nbgit.util.MonitoredFileMap;
 import org.eclipse.jgit.lib.Repository;
@@ -44,6 +47,8 @@ class ExcludeCache {
 
     private final MonitoredFileMap<PathPatternList> map = MonitoredFileMap.create();
     private final Repository repo;
+    private final Map<String, DirectoryState> states = new HashMap<String, DirectoryState>();
+    private int stateRemovals;
 
     public static ExcludeCache create(Repository repository) {
         return new ExcludeCache(repository);
@@ -67,60 +72,137 @@ private ExcludeCache(Repository repository) {
      *     DIR1: [dir1/]dir2/file
      *     ROOT: []dir1/dir2/file
      *
+     * The outcome of steps (1) and (2) is cached per directory, so only
+     * the last step is done for each file. The cached states are dropped
+     * when a cached ignore file changes or {@link #invalidate()} is called.
+     *
      * @param file to query for exclusion.
      * @return true if the file is excluded by a path pattern.
      */
     public boolean isExcluded(File file) {
-        File curDir = repo.getWorkDir();
-        String filePath = ExcludeUtils.getRelativePath(curDir, file);
-        Vector<PathPatternList> stack = new Vector<PathPatternList>(10);
-        StringBuilder pathBuilder = new StringBuilder(filePath.length());
-
-        addDefaultPatterns(stack, curDir);
-
-        while (true) {
-            int length = pathBuilder.length();
-            int offset = filePath.indexOf('/', pathBuilder.length() + 1);
-            boolean isDirectory = true;
-
-            if (offset == -1) {
-                offset = filePath.length();
-                isDirectory = file.isDirectory();
+        String filePath = ExcludeUtils.getRelativePath(repo.getWorkDir(), file);
+        int offset = filePath.lastIndexOf('/');
+        DirectoryState state;
+        if (filePath.length() == 0) {
+            state = getState("");
+        } else {
+            state = getState(offset == -1 ? "" : filePath.substring(0, offset));
+            if (state.isDecided()) {
+                return state.isExcluded();
             }
+        }
+        PathPattern pattern = state.findPattern(filePath, file.isDirectory());
+        return pattern != null && pattern.isExclude();
+    }
 
-            pathBuilder.insert(pathBuilder.length(), filePath, pathBuilder.length(), offset);
-            String currentPath = pathBuilder.toString();
-
-            for (int i = stack.size() - 1; i >= 0; i--) {
-                PathPatternList patterns = stack.get(i);
-                PathPattern pattern = patterns.findPattern(currentPath, isDirectory);
-                if (pattern != null) {
-                    return pattern.isExclude();
-                }
+    /**
+     * Check which entries of a directory are excluded. The state of the
+     * directory is resolved once for all entries.
+     *
+     * @param dir containing the entries.
+     * @param children entries of the directory.
+     * @param directories which of the entries are directories.
+     * @return the indexes of the excluded entries.
+     */
+    public BitSet findExcluded(File dir, File[] children, BitSet directories) {
+        BitSet excluded = new BitSet(children.length);
+        String dirPath = ExcludeUtils.getRelativePath(repo.getWorkDir(), dir);
+        DirectoryState state = getState(dirPath);
+        if (state.isDecided()) {
+            if (state.isExcluded()) {
+                excluded.set(0, children.length);
             }
-
-            if (!isDirectory || pathBuilder.length() >= filePath.length()) {
-                return false;
+            return excluded;
+        }
+        StringBuilder path = new StringBuilder(dirPath);
+        if (dirPath.length() > 0) {
+            path.append('/');
+        }
+        int length = path.length();
+        for (int i = 0; i < children.length; i++) {
+            path.setLength(length);
+            path.append(children[i].getName());
+            PathPattern pattern = state.findPattern(path.toString(), directories.get(i));
+            if (pattern != null && pattern.isExclude()) {
+                excluded.set(i);
             }
+        }
+        return excluded;
+    }
+
+    /**
+     * Drop all resolved directory states, for example because an ignore
+     * file was created.
+     */
+    public synchronized void invalidate() {
+        states.clear();
+    }
 
-            curDir = new File(curDir, pathBuilder.substring(length, offset));
-            PathPatternList patterns = getDirectoryPattern(curDir, currentPath);
-            if (patterns != null) {
-                stack.add(patterns);
+    /**
+     * Release the cache, including the watches on its ignore files.
+     */
+    synchronized void dispose() {
+        states.clear();
+        map.clear();
+    }
+
+    /**
+     * Get the resolved state of a directory. The state is derived from
+     * the state of the parent directory: either the parent decides for
+     * all of its content or the directory itself is matched using the
+     * patterns of the parent, and if it is not matched its own ignore
+     * file is put on top of the parent's patterns.
+     *
+     * @param dirPath relative to the work dir.
+     */
+    private synchronized DirectoryState getState(String dirPath) {
+        int removals = map.getRemovalCount();
+        if (removals != stateRemovals) {
+            states.clear();
+            stateRemovals = removals;
+        }
+        DirectoryState state = states.get(dirPath);
+        if (state == null) {
+            if (dirPath.length() == 0) {
+                state = new DirectoryState(getDefaultPatterns());
+            } else {
+                int offset = dirPath.lastIndexOf('/');
+                DirectoryState parent = getState(offset == -1 ? "" : dirPath.substring(0, offset));
+                state = parent;
+                if (!parent.isDecided()) {
+                    PathPattern pattern = parent.findPattern(dirPath, true);
+                    if (pattern != null) {
+                        state = new DirectoryState(pattern.isExclude());
+                    } else {
+                        File dir = new File(repo.getWorkDir(), dirPath);
+                        PathPatternList patterns = getDirectoryPattern(dir, dirPath);
+                        if (patterns != null) {
+                            state = new DirectoryState(parent, patterns);
+                        }
+                    }
+                }
             }
+            states.put(dirPath, state);
         }
+        return state;
     }
 
-    private void addDefaultPatterns(Vector<PathPatternList> stack, File curDir) {
-        PathPatternList patterns = getUserPatternList();
+    /**
+     * @return the patterns of the work dir with the highest precedence
+     *      first.
+     */
+    private PathPatternList[] getDefaultPatterns() {
+        Vector<PathPatternList> stack = new Vector<PathPatternList>(3);
+        PathPatternList patterns = getDirectoryPattern(repo.getWorkDir(), "");
         if (patterns != null)
             stack.add(patterns);
         patterns = getRepoPatternList();
         if (patterns != null)
             stack.add(patterns);
-        patterns = getDirectoryPattern(curDir, "");
+        patterns = getUserPatternList();
         if (patterns != null)
             stack.add(patterns);
+        return stack.toArray(new PathPatternList[stack.size()]);
     }
 
     private PathPatternList getDirectoryPattern(File dir, String dirPath) {
@@ -151,6 +233,57 @@ private PathPatternList getPatternList(File file, String basePath) {
         return list;
     }
 
+    /**
+     * The ignore state of a directory: either all of its content has
+     * been decided by a pattern matching the directory or one of its
+     * parents, or the content must be matched against the pattern lists
+     * of the directory and its parents.
+     */
+    private static class DirectoryState {
+
+        private final boolean decided;
+        private final boolean excluded;
+        private final PathPatternList[] stack;
+
+        DirectoryState(boolean excluded) {
+            this.decided = true;
+            this.excluded = excluded;
+            this.stack = null;
+        }
+
+        DirectoryState(PathPatternList[] stack) {
+            this.decided = false;
+            this.excluded = false;
+            this.stack = stack;
+        }
+
+        DirectoryState(DirectoryState parent, PathPatternList patterns) {
+            this.decided = false;
+            this.excluded = false;
+            this.stack = new PathPatternList[parent.stack.length + 1];
+            this.stack[0] = patterns;
+            System.arraycopy(parent.stack, 0, stack, 1, parent.stack.length);
+        }
+
+        boolean isDecided() {
+            return decided;
+        }
+
+        boolean isExcluded() {
+            return excluded;
+        }
+
+        PathPattern findPattern(String path, boolean isDirectory) {
+            for (PathPatternList patterns : stack) {
+                PathPattern pattern = patterns.findPattern(path, isDirectory);
+                if (pattern != null) {
+                    return pattern;
+                }
+            }
+            return null;
+        }
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder(getClass().getSimpleName());
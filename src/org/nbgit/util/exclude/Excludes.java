@@ -42,10 +42,12 @@
 package org.nbgit.util.exclude;
 
 import java.io.File;
+import java.util.BitSet;
 import java.util.HashMap;
 import org.nbgit.Git;
 import org.netbeans.api.project.ProjectManager;
 import org.netbeans.api.queries.SharabilityQuery;
+import org.netbeans.modules.versioning.util.Utils;
 import org.openide.filesystems.FileUtil;
 import org.eclipse.jgit.lib.Repository;
 
@@ -105,9 +107,7 @@ public static boolean isIgnored(File file, boolean checkSharability) {
         if (cache.isExcluded(file))
             return true;
 
-        if (file.getName().equals(".gitignore") ||
-            file.getName().equals(".gitattributes") ||
-            file.getName().equals(".gitmodules"))
+        if (isGitFile(file))
             return false;
 
         if (checkSharability && !isSharable(file)) {
@@ -117,12 +117,123 @@ public static boolean isIgnored(File file, boolean checkSharability) {
     }
 
 
+    /**
+     * Checks which entries of a directory are ignored. Gives the same
+     * result as calling {@link #isIgnored(File)} for each entry, but the
+     * repository, the ignore patterns and the sharability of the
+     * directory are resolved only once.
+     *
+     * @param dir containing the entries
+     * @param children entries of the directory
+     * @return the indexes of the ignored entries
+     */
+    public static BitSet classifyChildren(File dir, File[] children) {
+        BitSet ignored = new BitSet(children.length);
+        File topFile = Git.getInstance().getTopmostManagedParent(dir);
+        if (topFile == null) {
+            return ignored;
+        }
+
+        BitSet directories = new BitSet(children.length);
+        BitSet candidates = new BitSet(children.length);
+        ProjectManager projectManager = ProjectManager.getDefault();
+        for (int i = 0; i < children.length; i++) {
+            File file = children[i];
+            if (Utils.isScanForbidden(file)) {
+                continue;
+            }
+            if (file.isDirectory()) {
+                directories.set(i);
+                // Nested repositories and projects are not ignored.
+                if (new File(file, ".git").canWrite() || // NOI18N
+                        projectManager.isProject(FileUtil.toFileObject(file))) {
+                    continue;
+                }
+            }
+            candidates.set(i);
+        }
+
+        Repository repo = Git.getInstance().getRepository(topFile);
+        ignored.or(getCache(repo).findExcluded(dir, children, directories));
+        ignored.and(candidates);
+
+        int sharability = SharabilityQuery.getSharability(dir);
+        if (sharability == SharabilityQuery.SHARABLE) {
+            return ignored;
+        }
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            if (ignored.get(i) || isGitFile(children[i])) {
+                continue;
+            }
+            if (sharability == SharabilityQuery.NOT_SHARABLE || !isSharable(children[i])) {
+                ignored.set(i);
+            }
+        }
+        return ignored;
+    }
+
+    /**
+     * Notify that a file was created, changed or deleted. If it is an
+     * ignore file the cached ignore decisions of its repository are
+     * dropped.
+     *
+     * @param file that changed
+     */
+    public static void ignoreFileChanged(File file) {
+        if (file == null || !isIgnoreFile(file)) {
+            return;
+        }
+        File topFile = Git.getInstance().getTopmostManagedParent(file);
+        if (topFile == null) {
+            return;
+        }
+        ExcludeCache cache;
+        synchronized (cacheMap) {
+            cache = cacheMap.get(Git.getInstance().getRepository(topFile));
+        }
+        if (cache != null) {
+            cache.invalidate();
+        }
+    }
+
+    private static boolean isGitFile(File file) {
+        return file.getName().equals(".gitignore") ||
+            file.getName().equals(".gitattributes") ||
+            file.getName().equals(".gitmodules");
+    }
+
+    private static boolean isIgnoreFile(File file) {
+        if (file.getName().equals(".gitignore")) {
+            return true;
+        }
+        File parent = file.getParentFile();
+        return file.getName().equals("exclude") &&
+                parent != null && parent.getName().equals("info");
+    }
+
+    /**
+     * Drop the cached ignore patterns of a repository which has been closed.
+     *
+     * @param repo that was closed.
+     */
+    public static void repositoryClosed(Repository repo) {
+        ExcludeCache cache;
+        synchronized (cacheMap) {
+            cache = cacheMap.remove(repo);
+        }
+        if (cache != null) {
+            cache.dispose();
+        }
+    }
+
     private static ExcludeCache getCache(Repository repo) {
-        ExcludeCache cache = cacheMap.get(repo);
-        if (cache == null) {
-            cache = ExcludeCache.create(repo);
-            cacheMap.put(repo, cache);
+        synchronized (cacheMap) {
+            ExcludeCache cache = cacheMap.get(repo);
+            if (cache == null) {
+                cache = ExcludeCache.create(repo);
+                cacheMap.put(repo, cache);
+            }
+            return cache;
         }
-        return cache;
     }
 }
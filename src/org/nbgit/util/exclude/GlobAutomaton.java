@@ -0,0 +1,260 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2009 Jonas Fonseca <fonseca@diku.dk>
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common
+ * Development and Distribution License("CDDL") (collectively, the
+ * "License"). You may not use this file except in compliance with the
+ * License. You can obtain a copy of the License at
+ * http://www.netbeans.org/cddl-gplv2.html. See the License for the
+ * specific language governing permissions and limitations under the
+ * License.  When distributing the software, include this License Header
+ * Notice in each file.
+ *
+ * This particular file is subject to the "Classpath" exception as provided
+ * by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code. If applicable, add the following below the
+ * License Header, with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL
+ * or only the GPL Version 2, indicate your decision by adding
+ * "[Contributor] elects to include this software in this distribution
+ * under the [CDDL or GPL Version 2] license." If you do not indicate a
+ * single choice of license, a recipient has the option to distribute
+ * your version of this file under either the CDDL, the GPL Version 2 or
+ * to extend the choice of license to its licensees as provided above.
+ * However, if you add GPL Version 2 code and therefore, elected the GPL
+ * Version 2 license, then the option applies only if the new code is
+ * made subject to such option by the copyright holder.
+ */
+package org.nbgit.util.exclude;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A set of fnmatch() patterns compiled into one nondeterministic
+ * automaton. Pattern i is a chain of states, one per token; being in its
+ * state j means that the first j tokens matched. All active states are
+ * kept in one bit set so a single pass over the string tests every
+ * pattern, without the backtracking done by {@link FnMatch}.
+ *
+ * The patterns are interpreted like {@link FnMatch} does without flags
+ * or with only {@link FnMatch.Flag#PATHNAME}.
+ */
+final class GlobAutomaton {
+
+    private static final byte LITERAL = 0;
+    private static final byte ANY = 1;
+    private static final byte RANGE = 2;
+    private static final byte STAR = 3;
+    private static final byte NEVER = 4;
+    private static final byte ACCEPT = 5;
+
+    private final boolean pathname;
+    private final byte[] kinds;
+    private final char[] literals;
+    private final char[][] ranges;
+    private final boolean[] negated;
+    private final int[] patternOf;
+    private final long[] initial;
+
+    private GlobAutomaton(boolean pathname, byte[] kinds, char[] literals,
+            char[][] ranges, boolean[] negated, int[] patternOf, int[] starts) {
+        this.pathname = pathname;
+        this.kinds = kinds;
+        this.literals = literals;
+        this.ranges = ranges;
+        this.negated = negated;
+        this.patternOf = patternOf;
+        this.initial = new long[(kinds.length + 63) >>> 6];
+        for (int start : starts) {
+            addState(initial, start);
+        }
+    }
+
+    public static GlobAutomaton compile(List<String> patterns, boolean pathname) {
+        Compiler compiler = new Compiler(pathname);
+        int[] starts = new int[patterns.size()];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = compiler.add(patterns.get(i), i);
+        }
+        return compiler.build(starts);
+    }
+
+    /**
+     * Match the patterns against a string.
+     *
+     * @param string to match.
+     * @param from offset of the first character to match.
+     * @param skip patterns to ignore, may be null.
+     * @return the lowest index of a matching pattern or -1 if none match.
+     */
+    public int match(String string, int from, boolean[] skip) {
+        long[] current = initial.clone();
+        long[] next = new long[current.length];
+
+        for (int pos = from; pos < string.length(); pos++) {
+            char c = string.charAt(pos);
+            boolean slash = pathname && c == '/';
+            boolean active = false;
+
+            for (int word = 0; word < current.length; word++) {
+                long bits = current[word];
+                while (bits != 0) {
+                    int state = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    switch (kinds[state]) {
+                        case LITERAL:
+                            if (c == literals[state]) {
+                                active |= addState(next, state + 1);
+                            }
+                            break;
+                        case ANY:
+                            if (!slash) {
+                                active |= addState(next, state + 1);
+                            }
+                            break;
+                        case RANGE:
+                            if (!slash && inRange(state, c)) {
+                                active |= addState(next, state + 1);
+                            }
+                            break;
+                        case STAR:
+                            if (!slash) {
+                                active |= addState(next, state);
+                            }
+                            break;
+                    }
+                }
+            }
+            if (!active) {
+                return -1;
+            }
+            long[] swap = current;
+            current = next;
+            next = swap;
+            Arrays.fill(next, 0);
+        }
+
+        int best = -1;
+        for (int word = 0; word < current.length; word++) {
+            long bits = current[word];
+            while (bits != 0) {
+                int state = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                int pattern = patternOf[state];
+                if (kinds[state] == ACCEPT && (best == -1 || pattern < best) &&
+                        (skip == null || !skip[pattern])) {
+                    best = pattern;
+                }
+            }
+        }
+        return best;
+    }
+
+    private boolean addState(long[] states, int state) {
+        while (true) {
+            states[state >>> 6] |= 1L << state;
+            if (kinds[state] != STAR) {
+                return true;
+            }
+            state++;
+        }
+    }
+
+    private boolean inRange(int state, char c) {
+        char[] range = ranges[state];
+        boolean ok = false;
+        for (int i = 0; i < range.length; i += 2) {
+            if (range[i] <= c && c <= range[i + 1]) {
+                ok = true;
+                break;
+            }
+        }
+        return ok != negated[state];
+    }
+
+    private static class Compiler {
+
+        private final boolean pathname;
+        private final List<Byte> kinds = new ArrayList<Byte>();
+        private final List<Character> literals = new ArrayList<Character>();
+        private final List<char[]> ranges = new ArrayList<char[]>();
+        private final List<Boolean> negated = new ArrayList<Boolean>();
+        private final List<Integer> patternOf = new ArrayList<Integer>();
+
+        Compiler(boolean pathname) {
+            this.pathname = pathname;
+        }
+
+        /**
+         * Add the states of a pattern, one per opcode of the pattern
+         * compiled by {@link CompiledFnMatch}.
+         *
+         * @return the first state of the pattern.
+         */
+        int add(String pattern, int index) {
+            CompiledFnMatch compiled = CompiledFnMatch.compile(pattern,
+                    pathname ? CompiledFnMatch.PATHNAME : 0);
+            int start = kinds.size();
+
+            for (int pc = 0; pc < compiled.getOpCount(); pc++) {
+                switch (compiled.getOp(pc)) {
+                    case CompiledFnMatch.OP_LITERAL:
+                        addState(LITERAL, compiled.getLiteral(pc), null, false, index);
+                        break;
+                    case CompiledFnMatch.OP_ANY:
+                        addState(ANY, '\0', null, false, index);
+                        break;
+                    case CompiledFnMatch.OP_RANGE:
+                        addState(RANGE, '\0', compiled.getRange(pc), compiled.isRangeNegated(pc), index);
+                        break;
+                    case CompiledFnMatch.OP_STAR:
+                    case CompiledFnMatch.OP_STAR_SLASH:
+                    case CompiledFnMatch.OP_STAR_END:
+                        addState(STAR, '\0', null, false, index);
+                        break;
+                    default:
+                        addState(NEVER, '\0', null, false, index);
+                        break;
+                }
+            }
+            addState(ACCEPT, '\0', null, false, index);
+            return start;
+        }
+
+        private void addState(byte kind, char literal, char[] range, boolean negate, int index) {
+            kinds.add(kind);
+            literals.add(literal);
+            ranges.add(range);
+            negated.add(negate);
+            patternOf.add(index);
+        }
+
+        GlobAutomaton build(int[] starts) {
+            int size = kinds.size();
+            byte[] kindArray = new byte[size];
+            char[] literalArray = new char[size];
+            char[][] rangeArray = new char[size][];
+            boolean[] negatedArray = new boolean[size];
+            int[] patternArray = new int[size];
+            for (int i = 0; i < size; i++) {
+                kindArray[i] = kinds.get(i);
+                literalArray[i] = literals.get(i);
+                rangeArray[i] = ranges.get(i);
+                negatedArray[i] = negated.get(i);
+                patternArray[i] = patternOf.get(i);
+            }
+            return new GlobAutomaton(pathname, kindArray, literalArray,
+                    rangeArray, negatedArray, patternArray, starts);
+        }
+    }
+}
@@ -87,6 +87,29 @@ public boolean isExclude() {
         return exclude;
     }
 
+    String getPattern() {
+        return pattern;
+    }
+
+    boolean isMatchFileName() {
+        return matchFileName;
+    }
+
+    boolean isMatchDir() {
+        return matchDir;
+    }
+
+    /**
+     * @return true if the pattern is matched literally.
+     */
+    abstract boolean isLiteral();
+
+    /**
+     * @return the literal suffix for a file name pattern of the form
+     *      <code>*suffix</code> or null.
+     */
+    abstract String getLiteralSuffix();
+
     public boolean matches(String path, boolean isDirectory, String basePath) {
         if (matchDir && !isDirectory) {
             return false;
@@ -125,6 +148,16 @@ private NoWildcardPathPattern(String pattern) {
             super(pattern);
         }
 
+        @Override
+        boolean isLiteral() {
+            return true;
+        }
+
+        @Override
+        String getLiteralSuffix() {
+            return null;
+        }
+
         @Override
         protected boolean matchesFileName(String path) {
             if (path.length() > pattern.length() &&
@@ -145,9 +178,13 @@ protected boolean matchesPathName(String path, String basePath) {
     private static class WildcardPathPattern extends PathPattern {
 
         private final int regionFrom, regionLength;
+        private final CompiledFnMatch fileNameMatch;
+        private final CompiledFnMatch pathNameMatch;
 
         private WildcardPathPattern(String patternString) {
             super(patternString);
+            this.fileNameMatch = CompiledFnMatch.compile(pattern, 0);
+            this.pathNameMatch = CompiledFnMatch.compile(pattern, CompiledFnMatch.PATHNAME);
             int from = 0, to = 0;
             if (matchFileName) {
                 if (pattern.startsWith("*")) {
@@ -167,6 +204,19 @@ private WildcardPathPattern(String patternString) {
             this.regionLength = 0;
         }
 
+        @Override
+        boolean isLiteral() {
+            return false;
+        }
+
+        @Override
+        String getLiteralSuffix() {
+            if (regionFrom > 0 && regionLength > 0) {
+                return pattern.substring(regionFrom);
+            }
+            return null;
+        }
+
         @Override
         protected boolean matchesFileName(String path) {
             int from = path.lastIndexOf('/') + 1;
@@ -179,13 +229,13 @@ protected boolean matchesFileName(String path) {
                 return offset >= from &&
                         path.regionMatches(offset, pattern, regionFrom, regionLength);
             }
-            return FnMatch.fnmatch(pattern, path, from);
+            return fileNameMatch.matches(path, from);
         }
 
         @Override
         protected boolean matchesPathName(String path, String basePath) {
             int baseLength = basePath.length() > 0 ? basePath.length() + 1 : 0;
-            return FnMatch.fnmatch(pattern, path, baseLength, FnMatch.Flag.PATHNAME);
+            return pathNameMatch.matches(path, baseLength);
         }
     }
 }
@@ -1,11 +1,17 @@
 package org.nbgit.util.exclude;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 import java.util.Vector;
 
 public class PathPatternList {
 
     private final Vector<PathPattern> patterns = new Vector<PathPattern>();
     private final String basePath;
+    private volatile Matcher matcher;
 
     public PathPatternList(String basePath) {
         this.basePath = basePath;
@@ -18,15 +24,26 @@ public void add(String patternString) {
         } else {
             patterns.add(0, pattern);
         }
+        matcher = null;
     }
 
+    /**
+     * Find the pattern deciding whether a path is excluded. Include
+     * patterns take precedence over exclude patterns, so the first match
+     * is searched in the order: include patterns from last to first,
+     * followed by exclude patterns from first to last.
+     *
+     * @param path relative to the work dir.
+     * @param isDirectory whether the path denotes a directory.
+     * @return the matching pattern or null.
+     */
     public PathPattern findPattern(String path, boolean isDirectory) {
-        for (PathPattern pattern : patterns) {
-            if (pattern.matches(path, isDirectory, basePath)) {
-                return pattern;
-            }
+        Matcher current = matcher;
+        if (current == null) {
+            current = new Matcher(patterns.toArray(new PathPattern[patterns.size()]), basePath);
+            matcher = current;
         }
-        return null;
+        return current.findPattern(path, isDirectory);
     }
 
     @Override
@@ -39,4 +56,158 @@ public String toString() {
         builder.append("]");
         return builder.toString();
     }
+
+    /**
+     * The patterns of the list compiled into a single matcher. Literal
+     * names and paths, and <code>*suffix</code> patterns are found with
+     * one hash lookup each, the remaining patterns are run together by
+     * a {@link GlobAutomaton} per kind of pattern. Patterns are referred
+     * to by their position in the list, and the lowest matching position
+     * wins.
+     */
+    private static final class Matcher {
+
+        private final PathPattern[] patterns;
+        private final String basePath;
+        private final Map<String, int[]> names = new HashMap<String, int[]>();
+        private final Map<String, int[]> paths = new HashMap<String, int[]>();
+        private final Map<String, int[]> suffixes = new HashMap<String, int[]>();
+        private final int[] suffixLengths;
+        private final GlobAutomaton nameAutomaton;
+        private final int[] nameAutomatonPatterns;
+        private final boolean[] nameAutomatonDirs;
+        private final GlobAutomaton pathAutomaton;
+        private final int[] pathAutomatonPatterns;
+        private final boolean[] pathAutomatonDirs;
+
+        Matcher(PathPattern[] patterns, String basePath) {
+            this.patterns = patterns;
+            this.basePath = basePath;
+            List<Integer> nameGlobs = new ArrayList<Integer>();
+            List<Integer> pathGlobs = new ArrayList<Integer>();
+            TreeSet<Integer> lengths = new TreeSet<Integer>();
+
+            for (int i = 0; i < patterns.length; i++) {
+                PathPattern pattern = patterns[i];
+                String suffix = pattern.getLiteralSuffix();
+                if (pattern.isLiteral()) {
+                    index(pattern.isMatchFileName() ? names : paths, pattern.getPattern(), i);
+                } else if (suffix != null) {
+                    index(suffixes, suffix, i);
+                    lengths.add(suffix.length());
+                } else if (pattern.isMatchFileName()) {
+                    nameGlobs.add(i);
+                } else {
+                    pathGlobs.add(i);
+                }
+            }
+
+            suffixLengths = new int[lengths.size()];
+            int length = 0;
+            for (Integer suffixLength : lengths) {
+                suffixLengths[length++] = suffixLength;
+            }
+            nameAutomatonPatterns = toArray(nameGlobs);
+            nameAutomatonDirs = getMatchDirs(nameAutomatonPatterns);
+            nameAutomaton = compile(nameAutomatonPatterns, false);
+            pathAutomatonPatterns = toArray(pathGlobs);
+            pathAutomatonDirs = getMatchDirs(pathAutomatonPatterns);
+            pathAutomaton = compile(pathAutomatonPatterns, true);
+        }
+
+        PathPattern findPattern(String path, boolean isDirectory) {
+            int best = patterns.length;
+            int nameStart = path.lastIndexOf('/') + 1;
+
+            if (nameStart < path.length()) {
+                String name = path.substring(nameStart);
+                best = findFirst(names.get(name), isDirectory, best);
+                for (int length : suffixLengths) {
+                    if (length > name.length()) {
+                        break;
+                    }
+                    best = findFirst(suffixes.get(name.substring(name.length() - length)), isDirectory, best);
+                }
+                best = findFirst(nameAutomaton, nameAutomatonPatterns, nameAutomatonDirs,
+                        path, nameStart, isDirectory, best);
+            }
+
+            int baseLength = basePath.length() > 0 ? basePath.length() + 1 : 0;
+            if (path.length() >= baseLength && path.startsWith(basePath)) {
+                if (!paths.isEmpty()) {
+                    best = findFirst(paths.get(path.substring(baseLength)), isDirectory, best);
+                }
+                best = findFirst(pathAutomaton, pathAutomatonPatterns, pathAutomatonDirs,
+                        path, baseLength, isDirectory, best);
+            }
+
+            return best < patterns.length ? patterns[best] : null;
+        }
+
+        private int findFirst(int[] candidates, boolean isDirectory, int best) {
+            if (candidates != null) {
+                for (int candidate : candidates) {
+                    if (candidate >= best) {
+                        break;
+                    }
+                    if (isDirectory || !patterns[candidate].isMatchDir()) {
+                        return candidate;
+                    }
+                }
+            }
+            return best;
+        }
+
+        private int findFirst(GlobAutomaton automaton, int[] automatonPatterns, boolean[] matchDirs,
+                String path, int from, boolean isDirectory, int best) {
+            if (automaton == null || automatonPatterns[0] >= best) {
+                return best;
+            }
+            int match = automaton.match(path, from, isDirectory ? null : matchDirs);
+            if (match >= 0 && automatonPatterns[match] < best) {
+                return automatonPatterns[match];
+            }
+            return best;
+        }
+
+        private static void index(Map<String, int[]> index, String key, int pattern) {
+            int[] candidates = index.get(key);
+            if (candidates == null) {
+                candidates = new int[] { pattern };
+            } else {
+                int[] grown = new int[candidates.length + 1];
+                System.arraycopy(candidates, 0, grown, 0, candidates.length);
+                grown[candidates.length] = pattern;
+                candidates = grown;
+            }
+            index.put(key, candidates);
+        }
+
+        private static int[] toArray(List<Integer> list) {
+            int[] array = new int[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = list.get(i);
+            }
+            return array;
+        }
+
+        private boolean[] getMatchDirs(int[] indexes) {
+            boolean[] matchDirs = new boolean[indexes.length];
+            for (int i = 0; i < indexes.length; i++) {
+                matchDirs[i] = patterns[indexes[i]].isMatchDir();
+            }
+            return matchDirs;
+        }
+
+        private GlobAutomaton compile(int[] indexes, boolean pathname) {
+            if (indexes.length == 0) {
+                return null;
+            }
+            List<String> globs = new ArrayList<String>(indexes.length);
+            for (int index : indexes) {
+                globs.add(patterns[index].getPattern());
+            }
+            return GlobAutomaton.compile(globs, pathname);
+        }
+    }
 }
@@ -0,0 +1,199 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2009 Jonas Fonseca <fonseca@diku.dk>
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common
+ * Development and Distribution License("CDDL") (collectively, the
+ * "License"). You may not use this file except in compliance with the
+ * License. You can obtain a copy of the License at
+ * http://www.netbeans.org/cddl-gplv2.html. See the License for the
+ * specific language governing permissions and limitations under the
+ * License.  When distributing the software, include this License Header
+ * Notice in each file.
+ *
+ * This particular file is subject to the "Classpath" exception as provided
+ * by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code. If applicable, add the following below the
+ * License Header, with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL
+ * or only the GPL Version 2, indicate your decision by adding
+ * "[Contributor] elects to include this software in this distribution
+ * under the [CDDL or GPL Version 2] license." If you do not indicate a
+ * single choice of license, a recipient has the option to distribute
+ * your version of this file under either the CDDL, the GPL Version 2 or
+ * to extend the choice of license to its licensees as provided above.
+ * However, if you add GPL Version 2 code and therefore, elected the GPL
+ * Version 2 license, then the option applies only if the new code is
+ * made subject to such option by the copyright holder.
+ */
+package org.nbgit;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+public class RepositorySchedulerTest extends TestCase {
+
+    private static final File ROOT = new File("repo"); // NOI18N
+    private RepositoryScheduler scheduler;
+    private List<String> log;
+
+    @Override
+    protected void setUp() throws Exception {
+        scheduler = new RepositoryScheduler("Test"); // NOI18N
+        log = new ArrayList<String>();
+    }
+
+    public void testCancelBusyLane() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        scheduler.post(ROOT, new Runnable() {
+
+            public void run() {
+                started.countDown();
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException ex) {
+                    interrupted.countDown();
+                }
+            }
+        }, 0, false);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        scheduler.post(ROOT, new Job("queued"), 0, false);
+        scheduler.post(ROOT, new Job("visible"), 0, true);
+        assertTrue(scheduler.isBusy(ROOT));
+
+        scheduler.cancel(ROOT);
+        assertTrue("Running job interrupted", interrupted.await(5, TimeUnit.SECONDS));
+        assertFalse(scheduler.isBusy(ROOT));
+        Thread.sleep(200);
+        synchronized (log) {
+            assertTrue("Queued jobs ran: " + log, log.isEmpty());
+        }
+
+        CountDownLatch done = new CountDownLatch(1);
+        scheduler.post(ROOT, new Job("after", done), 0, false);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        synchronized (log) {
+            assertEquals("[after]", log.toString());
+        }
+    }
+
+    public void testOrder() throws Exception {
+        CountDownLatch release = block(ROOT);
+        CountDownLatch done = new CountDownLatch(1);
+        scheduler.post(ROOT, new Job("a"), 0, false);
+        scheduler.post(ROOT, new Job("b"), 0, false);
+        scheduler.post(ROOT, new Job("c", done), 0, false);
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertLog("[a, b, c]");
+    }
+
+    public void testDuplicates() throws Exception {
+        CountDownLatch release = block(ROOT);
+        CountDownLatch done = new CountDownLatch(1);
+        Job a = new Job("a");
+        scheduler.post(ROOT, a, 0, false);
+        scheduler.post(ROOT, new Job("b"), 0, false);
+        scheduler.post(ROOT, a, 0, false);
+        scheduler.post(ROOT, a, 0, true);
+        scheduler.post(ROOT, new Job("c", done), 0, false);
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertLog("[a, b, c]");
+
+        done = new CountDownLatch(1);
+        scheduler.post(ROOT, a, 0, false);
+        scheduler.post(ROOT, new Job("d", done), 0, false);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertLog("[a, b, c, a, d]");
+    }
+
+    public void testVisibleFirst() throws Exception {
+        CountDownLatch release = block(ROOT);
+        CountDownLatch done = new CountDownLatch(1);
+        Job c = new Job("c");
+        scheduler.post(ROOT, new Job("a"), 0, false);
+        scheduler.post(ROOT, new Job("b"), 0, true);
+        scheduler.post(ROOT, c, 0, false);
+        scheduler.post(ROOT, new Job("d", done), 0, false);
+        scheduler.post(ROOT, new Job("e"), 0, true);
+        scheduler.post(ROOT, c, 0, true);
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertLog("[b, e, c, a, d]");
+    }
+
+    public void testLanesRunInParallel() throws Exception {
+        CountDownLatch release = block(ROOT);
+        CountDownLatch done = new CountDownLatch(1);
+        scheduler.post(new File("other"), new Job("other", done), 0, false); // NOI18N
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(scheduler.isBusy(ROOT));
+        release.countDown();
+        assertLog("[other]");
+    }
+
+    /*
+     * Keep the lane of a repository busy until the returned latch is
+     * released, so jobs posted meanwhile are queued.
+     */
+    private CountDownLatch block(File root) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        scheduler.post(root, new Runnable() {
+
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                }
+            }
+        }, 0, false);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    private void assertLog(String expected) {
+        synchronized (log) {
+            assertEquals(expected, log.toString());
+        }
+    }
+
+    private class Job implements Runnable {
+
+        private final String name;
+        private final CountDownLatch done;
+
+        Job(String name) {
+            this(name, null);
+        }
+
+        Job(String name, CountDownLatch done) {
+            this.name = name;
+            this.done = done;
+        }
+
+        public void run() {
+            synchronized (log) {
+                log.add(name);
+            }
+            if (done != null) {
+                done.countDown();
+            }
+        }
+    }
+
+}
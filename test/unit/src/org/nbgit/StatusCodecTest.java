@@ -0,0 +1,155 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2009 Jonas Fonseca <fonseca@diku.dk>
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common
+ * Development and Distribution License("CDDL") (collectively, the
+ * "License"). You may not use this file except in compliance with the
+ * License. You can obtain a copy of the License at
+ * http://www.netbeans.org/cddl-gplv2.html. See the License for the
+ * specific language governing permissions and limitations under the
+ * License.  When distributing the software, include this License Header
+ * Notice in each file.
+ *
+ * This particular file is subject to the "Classpath" exception as provided
+ * by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code. If applicable, add the following below the
+ * License Header, with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL
+ * or only the GPL Version 2, indicate your decision by adding
+ * "[Contributor] elects to include this software in this distribution
+ * under the [CDDL or GPL Version 2] license." If you do not indicate a
+ * single choice of license, a recipient has the option to distribute
+ * your version of this file under either the CDDL, the GPL Version 2 or
+ * to extend the choice of license to its licensees as provided above.
+ * However, if you add GPL Version 2 code and therefore, elected the GPL
+ * Version 2 license, then the option applies only if the new code is
+ * made subject to such option by the copyright holder.
+ */
+package org.nbgit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import junit.framework.TestCase;
+
+public class StatusCodecTest extends TestCase {
+
+    private static final String DIR = new File("/repo/dir").getPath();
+
+    public void testValueRoundTrip() throws Exception {
+        Map<File, StatusInfo> map = new HashMap<File, StatusInfo>();
+        put(map, "build.xml", StatusInfo.STATUS_VERSIONED_UPTODATE, false);
+        put(map, "build-impl.xml", StatusInfo.STATUS_VERSIONED_MODIFIEDLOCALLY, false);
+        put(map, "build", StatusInfo.STATUS_NOTVERSIONED_EXCLUDED, true);
+        put(map, "added", StatusInfo.STATUS_VERSIONED_ADDEDLOCALLY, false);
+        put(map, "deleted", StatusInfo.STATUS_VERSIONED_DELETEDLOCALLY, false);
+        put(map, "unknown", StatusInfo.STATUS_UNKNOWN, false);
+        put(map, "combined", StatusInfo.STATUS_VERSIONED_MERGE | StatusInfo.STATUS_VERSIONED_CONFLICT, false);
+        assertRoundTrip(map);
+    }
+
+    public void testSupplementaryCharacters() throws Exception {
+        Map<File, StatusInfo> map = new HashMap<File, StatusInfo>();
+        // U+1F600 and U+1F601 share their high surrogate
+        put(map, "icon-😀.png", StatusInfo.STATUS_VERSIONED_UPTODATE, false);
+        put(map, "icon-😁.png", StatusInfo.STATUS_VERSIONED_UPTODATE, false);
+        put(map, "𠀀", StatusInfo.STATUS_NOTVERSIONED_NEWLOCALLY, false);
+        put(map, "𠀁", StatusInfo.STATUS_NOTVERSIONED_NEWLOCALLY, true);
+        assertRoundTrip(map);
+    }
+
+    public void testEmptyNames() throws Exception {
+        assertRoundTrip(new HashMap<File, StatusInfo>());
+
+        Map<File, StatusInfo> map = new HashMap<File, StatusInfo>();
+        map.put(new File(""), new StatusInfo(StatusInfo.STATUS_VERSIONED_UPTODATE, true));
+        put(map, "a", StatusInfo.STATUS_VERSIONED_UPTODATE, false);
+        StatusCodec codec = new StatusCodec();
+        Map<File, StatusInfo> decoded = codec.decodeValue(codec.encodeValue(map), DIR);
+        assertEquals(2, decoded.size());
+        assertTrue(decoded.get(new File(DIR)).isDirectory());
+        assertFalse(decoded.get(new File(DIR, "a")).isDirectory());
+    }
+
+    public void testSharedPrefixes() throws Exception {
+        Map<File, StatusInfo> map = new HashMap<File, StatusInfo>();
+        put(map, "a", StatusInfo.STATUS_VERSIONED_UPTODATE, false);
+        put(map, "ab", StatusInfo.STATUS_VERSIONED_UPTODATE, false);
+        put(map, "abc", StatusInfo.STATUS_VERSIONED_MODIFIEDLOCALLY, false);
+        put(map, "abd", StatusInfo.STATUS_VERSIONED_UPTODATE, false);
+        put(map, "b", StatusInfo.STATUS_VERSIONED_UPTODATE, false);
+        assertRoundTrip(map);
+    }
+
+    public void testSingleByteStatus() throws Exception {
+        Map<File, StatusInfo> map = new HashMap<File, StatusInfo>();
+        put(map, "a", StatusInfo.STATUS_VERSIONED_ADDEDLOCALLY, false);
+        // count, shared prefix, name length, name, status
+        assertEquals(5, new StatusCodec().encodeValue(map).length);
+    }
+
+    public void testKeyRoundTrip() throws Exception {
+        StatusCodec codec = new StatusCodec();
+        assertTrue(codec.addRoot(new File("/repo").getPath()));
+        StatusCodec reader = new StatusCodec();
+        reader.readRoots(codec.writeRoots());
+        assertEquals(DIR, reader.decodeKey(codec.encodeKey(DIR)));
+        String other = new File("/other/😀").getPath();
+        assertEquals(other, reader.decodeKey(codec.encodeKey(other)));
+    }
+
+    public void testCorruptValues() throws Exception {
+        // negative and huge counts
+        assertCorrupt(0xff, 0xff, 0xff, 0xff, 0x0f);
+        assertCorrupt(0xff, 0xff, 0xff, 0xff, 0x07, 0, 1, 'a', 2);
+        // negative name length
+        assertCorrupt(1, 0, 0xff, 0xff, 0xff, 0xff, 0x0f, 2);
+        // name longer than the value
+        assertCorrupt(1, 0, 100, 'a', 2);
+        // shared prefix longer than the previous name
+        assertCorrupt(2, 0, 1, 'a', 2, 5, 1, 'b', 2);
+        assertCorrupt(2, 0, 1, 'a', 2, 0xff, 0xff, 0xff, 0xff, 0x0f, 1, 'b', 2);
+        // unknown status
+        assertCorrupt(1, 0, 1, 'a', 100);
+        // truncated
+        assertCorrupt(1, 0, 1, 'a');
+    }
+
+    private static void assertCorrupt(int... value) throws Exception {
+        byte[] bytes = new byte[value.length];
+        for (int i = 0; i < value.length; i++) {
+            bytes[i] = (byte) value[i];
+        }
+        try {
+            new StatusCodec().decodeValue(bytes, DIR);
+            fail("No exception thrown");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static void put(Map<File, StatusInfo> map, String name, int status, boolean directory) {
+        map.put(new File(DIR, name), new StatusInfo(status, directory));
+    }
+
+    private static void assertRoundTrip(Map<File, StatusInfo> expected) throws Exception {
+        StatusCodec codec = new StatusCodec();
+        Map<File, StatusInfo> actual = codec.decodeValue(codec.encodeValue(expected), DIR);
+        assertEquals(expected.size(), actual.size());
+        for (Map.Entry<File, StatusInfo> entry : expected.entrySet()) {
+            StatusInfo info = actual.get(entry.getKey());
+            assertNotNull(entry.getKey().getPath(), info);
+            assertEquals(entry.getValue().getStatus(), info.getStatus());
+            assertEquals(entry.getValue().isDirectory(), info.isDirectory());
+        }
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2009 Jonas Fonseca <fonseca@diku.dk>
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common
+ * Development and Distribution License("CDDL") (collectively, the
+ * "License"). You may not use this file except in compliance with the
+ * License. You can obtain a copy of the License at
+ * http://www.netbeans.org/cddl-gplv2.html. See the License for the
+ * specific language governing permissions and limitations under the
+ * License.  When distributing the software, include this License Header
+ * Notice in each file.
+ *
+ * This particular file is subject to the "Classpath" exception as provided
+ * by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code. If applicable, add the following below the
+ * License Header, with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL
+ * or only the GPL Version 2, indicate your decision by adding
+ * "[Contributor] elects to include this software in this distribution
+ * under the [CDDL or GPL Version 2] license." If you do not indicate a
+ * single choice of license, a recipient has the option to distribute
+ * your version of this file under either the CDDL, the GPL Version 2 or
+ * to extend the choice of license to its licensees as provided above.
+ * However, if you add GPL Version 2 code and therefore, elected the GPL
+ * Version 2 license, then the option applies only if the new code is
+ * made subject to such option by the copyright holder.
+ */
+package org.nbgit;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+public class StatusStoreTest extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("gitstatus", ".db"); // NOI18N
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testReopen() throws Exception {
+        StatusStore store = StatusStore.open(file, 1);
+        store.put(bytes("a"), bytes("value of a"));
+        store.put(bytes("b"), bytes("value of b"));
+        store.remove(bytes("a"));
+        store.close();
+
+        store = StatusStore.open(file, 1);
+        assertEquals(1, store.size());
+        assertNull(store.get(bytes("a")));
+        assertTrue(Arrays.equals(bytes("value of b"), store.get(bytes("b"))));
+        store.close();
+    }
+
+    public void testReopenOtherVersion() throws Exception {
+        StatusStore store = StatusStore.open(file, 1);
+        store.put(bytes("a"), bytes("value of a"));
+        store.close();
+
+        store = StatusStore.open(file, 2);
+        assertEquals(0, store.size());
+        store.close();
+    }
+
+    public void testReopenTruncated() throws Exception {
+        StatusStore store = StatusStore.open(file, 1);
+        for (int i = 0; i < 100; i++) {
+            store.put(bytes("key" + i), bytes("value" + i));
+        }
+        store.close();
+        int keyOffset = indexOf(bytes("key99value99"));
+        truncate(keyOffset + 4);
+
+        store = StatusStore.open(file, 1);
+        assertEquals(0, store.getAll().size());
+        store.put(bytes("a"), bytes("value of a"));
+        assertTrue(Arrays.equals(bytes("value of a"), store.get(bytes("a"))));
+        store.close();
+    }
+
+    public void testReopenNegativeKeyLength() throws Exception {
+        assertResetAfterCorruption(-8, -5);
+    }
+
+    public void testReopenOversizedValue() throws Exception {
+        assertResetAfterCorruption(-4, 1 << 20);
+    }
+
+    public void testReopenHugeCapacity() throws Exception {
+        // Empty, so the index of the header's capacity reads all zeros
+        StatusStore store = StatusStore.open(file, 1);
+        store.close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw"); // NOI18N
+        try {
+            // The capacity of the header, 32 + 2^29 * 8 overflows an int
+            raf.seek(8);
+            raf.writeInt(1 << 29);
+        } finally {
+            raf.close();
+        }
+
+        store = StatusStore.open(file, 1);
+        assertEquals(0, store.getAll().size());
+        store.put(bytes("a"), bytes("value of a"));
+        assertEquals(1, store.size());
+        store.close();
+    }
+
+    /**
+     * Overwrite a length field in the header of a record and check that
+     * the reopened store is empty and usable.
+     */
+    private void assertResetAfterCorruption(int fieldOffset, int length) throws Exception {
+        StatusStore store = StatusStore.open(file, 1);
+        store.put(bytes("a"), bytes("value of a"));
+        store.put(bytes("corrupt"), bytes("value"));
+        store.close();
+        int keyOffset = indexOf(bytes("corruptvalue"));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw"); // NOI18N
+        try {
+            raf.seek(keyOffset + fieldOffset);
+            raf.writeInt(length);
+        } finally {
+            raf.close();
+        }
+
+        store = StatusStore.open(file, 1);
+        assertEquals(0, store.getAll().size());
+        assertNull(store.get(bytes("a")));
+        store.put(bytes("a"), bytes("value of a"));
+        assertEquals(1, store.size());
+        store.close();
+    }
+
+    private int indexOf(byte[] pattern) throws Exception {
+        byte[] content = new byte[(int) file.length()];
+        RandomAccessFile raf = new RandomAccessFile(file, "r"); // NOI18N
+        try {
+            raf.readFully(content);
+        } finally {
+            raf.close();
+        }
+        search:
+        for (int i = 0; i <= content.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (content[i + j] != pattern[j]) {
+                    continue search;
+                }
+            }
+            return i;
+        }
+        fail("Record not found");
+        return -1;
+    }
+
+    private void truncate(long length) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw"); // NOI18N
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static byte[] bytes(String string) throws Exception {
+        return string.getBytes("UTF-8"); // NOI18N
+    }
+
+}
@@ -0,0 +1,217 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2009 Jonas Fonseca <fonseca@diku.dk>
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common
+ * Development and Distribution License("CDDL") (collectively, the
+ * "License"). You may not use this file except in compliance with the
+ * License. You can obtain a copy of the License at
+ * http://www.netbeans.org/cddl-gplv2.html. See the License for the
+ * specific language governing permissions and limitations under the
+ * License.  When distributing the software, include this License Header
+ * Notice in each file.
+ *
+ * This particular file is subject to the "Classpath" exception as provided
+ * by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code. If applicable, add the following below the
+ * License Header, with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL
+ * or only the GPL Version 2, indicate your decision by adding
+ * "[Contributor] elects to include this software in this distribution
+ * under the [CDDL or GPL Version 2] license." If you do not indicate a
+ * single choice of license, a recipient has the option to distribute
+ * your version of this file under either the CDDL, the GPL Version 2 or
+ * to extend the choice of license to its licensees as provided above.
+ * However, if you add GPL Version 2 code and therefore, elected the GPL
+ * Version 2 license, then the option applies only if the new code is
+ * made subject to such option by the copyright holder.
+ */
+package org.nbgit;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import junit.framework.TestCase;
+
+public class StatusTrieTest extends TestCase {
+
+    private static final File ROOT = new File("/repo"); // NOI18N
+    private static final int MODIFIED = StatusInfo.STATUS_VERSIONED_MODIFIEDLOCALLY;
+    private static final int ADDED = StatusInfo.STATUS_VERSIONED_ADDEDLOCALLY;
+    private static final int EXCLUDED = StatusInfo.STATUS_NOTVERSIONED_EXCLUDED;
+    private static final Set<File> NONE = Collections.emptySet();
+    private Map<File, StatusInfo> files;
+    private StatusTrie trie;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        files = new HashMap<File, StatusInfo>();
+        put("a.txt", MODIFIED);
+        put("dir", ADDED);
+        put("dir/b.txt", MODIFIED);
+        put("dir/sub/c.txt", ADDED);
+        put("dir/sub/deep/d.txt", MODIFIED);
+        put("dirx/e.txt", MODIFIED);
+        put("ignored", EXCLUDED);
+        trie = StatusTrie.create(files);
+    }
+
+    public void testRecursive() {
+        assertCollect(file("dir"), MODIFIED, false, true, NONE,
+                "dir/b.txt", "dir/sub/deep/d.txt");
+        assertCollect(file("dir"), MODIFIED | ADDED, false, true, NONE,
+                "dir", "dir/b.txt", "dir/sub/c.txt", "dir/sub/deep/d.txt");
+        assertCollect(ROOT, EXCLUDED, false, true, NONE, "ignored");
+        assertCollect(file("dir/sub/deep/d.txt"), MODIFIED, false, true, NONE,
+                "dir/sub/deep/d.txt");
+    }
+
+    public void testFlat() {
+        assertCollect(file("dir"), MODIFIED | ADDED, true, true, NONE,
+                "dir", "dir/b.txt");
+        assertCollect(ROOT, MODIFIED, true, true, NONE, "a.txt");
+        assertCollect(file("dir/sub"), MODIFIED, true, true, NONE);
+    }
+
+    public void testIncludeSelf() {
+        assertCollect(file("dir"), ADDED, false, false, NONE, "dir/sub/c.txt");
+        assertCollect(file("dir"), ADDED, true, false, NONE);
+        assertCollect(file("a.txt"), MODIFIED, false, false, NONE);
+        assertCollect(file("a.txt"), MODIFIED, true, true, NONE, "a.txt");
+    }
+
+    public void testExclusions() {
+        Set<File> sub = Collections.singleton(file("dir/sub"));
+        assertCollect(file("dir"), MODIFIED | ADDED, false, true, sub, "dir", "dir/b.txt");
+        assertCollect(file("dir/sub/deep"), MODIFIED, false, true, sub);
+        assertCollect(file("dir"), MODIFIED, true, true,
+                Collections.singleton(file("dir/b.txt")));
+        assertCollect(ROOT, MODIFIED, false, true,
+                new HashSet<File>(Arrays.asList(file("dir"), file("dirx"))), "a.txt");
+    }
+
+    public void testUnknownRoot() {
+        assertCollect(file("none"), ~0, false, true, NONE);
+        assertCollect(file("dir/none"), ~0, true, true, NONE);
+        assertCollect(new File("/other"), ~0, false, true, NONE);
+    }
+
+    /*
+     * Compare with the loops over all modified files used before the trie.
+     */
+    public void testSameAsLoop() {
+        Random random = new Random(42);
+        files.clear();
+        for (int i = 0; i < 300; i++) {
+            put(randomPath(random, 4), 1 << random.nextInt(4));
+        }
+        trie = StatusTrie.create(files);
+        Set<File> dirs = new HashSet<File>();
+        dirs.add(ROOT);
+        for (File file : files.keySet()) {
+            for (File dir = file; !dir.equals(ROOT); dir = dir.getParentFile()) {
+                dirs.add(dir);
+            }
+        }
+        for (File dir : dirs) {
+            for (int status = 1; status < 16; status++) {
+                Set<File> exclusions = random.nextBoolean() ? NONE :
+                        Collections.singleton(file(randomPath(random, 2)));
+                for (int flat = 0; flat < 2; flat++) {
+                    for (int self = 0; self < 2; self++) {
+                        Set<File> expected = loop(dir, status, flat == 1, self == 1, exclusions);
+                        assertCollect(dir, status, flat == 1, self == 1, exclusions, expected);
+                        assertEquals(!expected.isEmpty(),
+                                trie.contains(dir, status, flat == 1, self == 1, exclusions));
+                    }
+                }
+            }
+        }
+    }
+
+    private Set<File> loop(File root, int includeStatus, boolean flat, boolean includeSelf, Set<File> exclusions) {
+        Set<File> set = new HashSet<File>();
+        for (Map.Entry<File, StatusInfo> entry : files.entrySet()) {
+            File file = entry.getKey();
+            if ((entry.getValue().getStatus() & includeStatus) == 0) {
+                continue;
+            }
+            boolean self = file.equals(root);
+            if (self && !includeSelf) {
+                continue;
+            }
+            if (self || (flat ? root.equals(file.getParentFile()) : isAncestor(root, file))) {
+                set.add(file);
+            }
+        }
+        for (File excluded : exclusions) {
+            for (File file : new HashSet<File>(set)) {
+                if (excluded.equals(file) || isAncestor(excluded, file)) {
+                    set.remove(file);
+                }
+            }
+        }
+        return set;
+    }
+
+    private static boolean isAncestor(File ancestor, File file) {
+        for (File parent = file.getParentFile(); parent != null; parent = parent.getParentFile()) {
+            if (parent.equals(ancestor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String randomPath(Random random, int maxDepth) {
+        StringBuilder path = new StringBuilder();
+        int depth = 1 + random.nextInt(maxDepth);
+        for (int i = 0; i < depth; i++) {
+            if (i > 0) {
+                path.append('/');
+            }
+            path.append((char) ('a' + random.nextInt(3)));
+        }
+        return path.toString();
+    }
+
+    private void assertCollect(File dir, int includeStatus, boolean flat, boolean includeSelf,
+            Set<File> exclusions, String... expected) {
+        Set<File> expectedFiles = new HashSet<File>();
+        for (String path : expected) {
+            expectedFiles.add(file(path));
+        }
+        assertCollect(dir, includeStatus, flat, includeSelf, exclusions, expectedFiles);
+        assertEquals(expected.length > 0, trie.contains(dir, includeStatus, flat, includeSelf, exclusions));
+    }
+
+    private void assertCollect(File dir, int includeStatus, boolean flat, boolean includeSelf,
+            Set<File> exclusions, Set<File> expected) {
+        Set<File> result = new HashSet<File>();
+        trie.collect(dir, includeStatus, flat, includeSelf, exclusions, result);
+        assertEquals(dir + " " + includeStatus + " flat=" + flat + " self=" + includeSelf + " " + exclusions,
+                expected, result);
+    }
+
+    private void put(String path, int status) {
+        files.put(file(path), new StatusInfo(status, null, false));
+    }
+
+    private static File file(String path) {
+        return new File(ROOT, path.replace('/', File.separatorChar));
+    }
+
+}
@@ -35,9 +35,14 @@
  */
 package org.nbgit.client;
 
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileWriter;
 import java.io.IOException;
 import org.nbgit.junit.RepositoryTestCase;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Repository;
 
 public class IndexBuilderTest extends RepositoryTestCase {
 
@@ -98,6 +103,45 @@ public void testAddAllUnordered() throws Exception {
         compareIndexFiles();
     }
 
+    public void testAddAllPacked() throws Exception {
+        Repository packed = new Repository(new File(new File(getWorkDir(), "packed"), ".git"));
+        packed.create();
+        String[] paths = {"a/1", "a/2", "b/3", "c/4", "same"};
+        for (int i = 0; i < paths.length; i++) {
+            writeFile(toFile(workDir, paths[i]), "content " + i);
+            writeFile(toFile(packed.getWorkDir(), paths[i]), "content " + i);
+        }
+        writeFile(toFile(workDir, "copy"), "content 4");
+        writeFile(toFile(packed.getWorkDir(), "copy"), "content 4");
+
+        IndexBuilder loose = IndexBuilder.create(repository).
+                packThreshold(Integer.MAX_VALUE).
+                addAll(toFiles(workDir, "a/1", "a/2", "b/3", "c/4", "same", "copy"));
+        loose.write();
+        IndexBuilder pack = IndexBuilder.create(packed).
+                packThreshold(1).
+                addAll(toFiles(packed.getWorkDir(), "a/1", "a/2", "b/3", "c/4", "same", "copy"));
+        pack.write();
+
+        File[] packFiles = new File(packed.getObjectsDirectory(), "pack").listFiles();
+        assertEquals(2, packFiles.length);
+        String name = packFiles[0].getName();
+        String base = name.substring(0, name.lastIndexOf('.'));
+        assertTrue(new File(packFiles[0].getParentFile(), base + ".pack").isFile());
+        assertTrue(new File(packFiles[0].getParentFile(), base + ".idx").isFile());
+
+        DirCache looseIndex = DirCache.read(repository);
+        DirCache packIndex = DirCache.read(packed);
+        assertEquals(looseIndex.getEntryCount(), packIndex.getEntryCount());
+        for (int i = 0; i < looseIndex.getEntryCount(); i++) {
+            DirCacheEntry entry = looseIndex.getEntry(i);
+            assertEquals(entry.getPathString(), packIndex.getEntry(i).getPathString());
+            assertEquals(entry.getObjectId(), packIndex.getEntry(i).getObjectId());
+            assertTrue(packed.hasObject(entry.getObjectId()));
+        }
+        assertEquals(loose.writeTree(), pack.writeTree());
+    }
+
     public void testDelete() throws Exception {
         IndexBuilder.create(repository).
                 delete(toWorkDirFile("b/e/f")).
@@ -186,6 +230,16 @@ public void testMoveDestinationNonExisting() throws Exception {
         }
     }
 
+    private void writeFile(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
     private void assertErrorPath(IOException error, String path) {
         assertTrue(error.getMessage().startsWith(toWorkDirFile(path).getPath()));
     }
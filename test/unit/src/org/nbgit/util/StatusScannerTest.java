@@ -0,0 +1,242 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2009 Jonas Fonseca <fonseca@diku.dk>
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common
+ * Development and Distribution License("CDDL") (collectively, the
+ * "License"). You may not use this file except in compliance with the
+ * License. You can obtain a copy of the License at
+ * http://www.netbeans.org/cddl-gplv2.html. See the License for the
+ * specific language governing permissions and limitations under the
+ * License.  When distributing the software, include this License Header
+ * Notice in each file.
+ *
+ * This particular file is subject to the "Classpath" exception as provided
+ * by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code. If applicable, add the following below the
+ * License Header, with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL
+ * or only the GPL Version 2, indicate your decision by adding
+ * "[Contributor] elects to include this software in this distribution
+ * under the [CDDL or GPL Version 2] license." If you do not indicate a
+ * single choice of license, a recipient has the option to distribute
+ * your version of this file under either the CDDL, the GPL Version 2 or
+ * to extend the choice of license to its licensees as provided above.
+ * However, if you add GPL Version 2 code and therefore, elected the GPL
+ * Version 2 license, then the option applies only if the new code is
+ * made subject to such option by the copyright holder.
+ */
+package org.nbgit.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeMap;
+import org.nbgit.client.CommitBuilder;
+import org.nbgit.client.IndexBuilder;
+import org.nbgit.junit.RepositoryTestCase;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.lib.IndexDiff;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+public class StatusScannerTest extends RepositoryTestCase {
+
+    private long past;
+
+    public StatusScannerTest() {
+        super(StatusScannerTest.class.getSimpleName());
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        past = (System.currentTimeMillis() / 1000 - 60) * 1000;
+        write("a.txt", "a");
+        write("dir/b.txt", "b");
+        write("dir/c.txt", "c");
+        write("dir/sub/d.txt", "d");
+        write("dirx/e.txt", "e");
+        write("other/f.txt", "f");
+        write("other/g.txt", "g");
+        CommitBuilder.create(repository).
+                time(getTime(), getTimeZone()).
+                log(logger).
+                addAll(toFiles(workDir, "a.txt", "dir/b.txt", "dir/c.txt",
+                    "dir/sub/d.txt", "dirx/e.txt", "other/f.txt", "other/g.txt")).
+                message(getName() + "\n").
+                write();
+    }
+
+    public void testUnchanged() throws Exception {
+        assertScan("");
+        assertEquals(StatusTable.UPTODATE, scan("").getFlags("dir/sub/d.txt"));
+        assertEquals(7, scan("").size());
+    }
+
+    public void testChanges() throws Exception {
+        makeChanges();
+        assertScan("");
+        StatusTable table = scan("");
+        assertEquals(StatusTable.MODIFIED, table.getFlags("dir/b.txt"));
+        assertEquals(StatusTable.MISSING, table.getFlags("dir/c.txt"));
+        assertEquals(StatusTable.ADDED, table.getFlags("dir/new.txt"));
+        assertEquals(StatusTable.UNTRACKED, table.getFlags("dir/untracked.txt"));
+        assertEquals(StatusTable.REMOVED, table.getFlags("other/f.txt"));
+        assertEquals(StatusTable.CHANGED, table.getFlags("other/g.txt"));
+    }
+
+    public void testSubtree() throws Exception {
+        makeChanges();
+        assertScan("dir");
+        assertScan("dir/sub");
+        assertScan("other");
+        assertScan("other/f.txt");
+        assertScan("dir", "other");
+    }
+
+    public void testUntrackedBelowUnmatchedPrefix() throws Exception {
+        write("dirx/untracked.txt", "u");
+        write("di/untracked.txt", "u");
+        assertScan("dir");
+        assertScan("dirx");
+        assertEquals(-1, scan("dir").indexOf("dirx/untracked.txt"));
+        assertEquals(StatusTable.UNTRACKED, scan("dirx").getFlags("dirx/untracked.txt"));
+        assertEquals(0, scan("dir", "other").getFlags("di/untracked.txt"));
+    }
+
+    public void testRacilyCleanUnchanged() throws Exception {
+        setModified("dir/b.txt", past);
+        IndexBuilder.create(repository).add(toWorkDirFile("dir/b.txt")).write();
+        toGitDirFile("index").setLastModified(past);
+        assertScan("");
+        assertEquals(StatusTable.UPTODATE, scan("").getFlags("dir/b.txt"));
+    }
+
+    /*
+     * IndexDiff trusts the matching modification time and reports the
+     * file as unchanged, the scanner compares the content.
+     */
+    public void testRacilyCleanModified() throws Exception {
+        setModified("dir/b.txt", past);
+        IndexBuilder.create(repository).add(toWorkDirFile("dir/b.txt")).write();
+        write("dir/b.txt", "B");
+        setModified("dir/b.txt", past);
+        toGitDirFile("index").setLastModified(past);
+        assertEquals(StatusTable.MODIFIED, scan("").getFlags("dir/b.txt"));
+        assertEquals(StatusTable.MODIFIED, scan("dir").getFlags("dir/b.txt"));
+    }
+
+    private void makeChanges() throws Exception {
+        write("dir/b.txt", "changed");
+        toWorkDirFile("dir/c.txt").delete();
+        write("dir/new.txt", "new");
+        write("dir/untracked.txt", "untracked");
+        write("other/g.txt", "staged");
+        IndexBuilder.create(repository).
+                add(toWorkDirFile("dir/new.txt")).
+                add(toWorkDirFile("other/g.txt")).
+                delete(toWorkDirFile("other/f.txt")).
+                write();
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = toWorkDirFile(path);
+        file.getParentFile().mkdirs();
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+        file.setLastModified(past);
+    }
+
+    private void setModified(String path, long time) {
+        assertTrue(toWorkDirFile(path).setLastModified(time));
+    }
+
+    private StatusTable scan(String... paths) throws IOException {
+        return StatusScanner.scan(repository, Arrays.asList(paths));
+    }
+
+    /*
+     * Compare the scan with the status computed the way it was before the
+     * scanner, using IndexDiff for the tracked files and a walk of the
+     * working tree for the untracked ones.
+     */
+    private void assertScan(String... paths) throws Exception {
+        Collection<String> prefixes = Arrays.asList(paths);
+        TreeMap<String, Integer> expected = new TreeMap<String, Integer>();
+        Repository repo = new Repository(gitDir);
+        try {
+            IndexDiff diff = new IndexDiff(repo);
+            diff.diff();
+            put(expected, diff.getAdded(), StatusTable.ADDED, prefixes);
+            put(expected, diff.getChanged(), StatusTable.CHANGED, prefixes);
+            put(expected, diff.getRemoved(), StatusTable.REMOVED, prefixes);
+            put(expected, diff.getMissing(), StatusTable.MISSING, prefixes);
+            put(expected, diff.getModified(), StatusTable.MODIFIED, prefixes);
+
+            DirCache cache = DirCache.read(repo);
+            for (int i = 0; i < cache.getEntryCount(); i++) {
+                String path = cache.getEntry(i).getPathString();
+                if (!expected.containsKey(path)) {
+                    put(expected, Collections.singleton(path), StatusTable.UPTODATE, prefixes);
+                }
+            }
+            TreeWalk walk = new TreeWalk(repo);
+            walk.reset();
+            walk.setRecursive(true);
+            walk.addTree(new FileTreeIterator(workDir));
+            while (walk.next()) {
+                String path = walk.getPathString();
+                if (cache.getEntry(path) == null && !expected.containsKey(path)) {
+                    put(expected, Collections.singleton(path), StatusTable.UNTRACKED, prefixes);
+                }
+            }
+        } finally {
+            repo.close();
+        }
+
+        TreeMap<String, Integer> actual = new TreeMap<String, Integer>();
+        StatusTable table = StatusScanner.scan(repository, prefixes);
+        for (int i = 0; i < table.size(); i++) {
+            actual.put(table.getPath(i), table.getFlags(i));
+        }
+        assertEquals(expected, actual);
+    }
+
+    private static void put(TreeMap<String, Integer> map, Set<String> paths, int flags,
+            Collection<String> prefixes) {
+        for (String path : paths) {
+            if (!isBelow(path, prefixes)) {
+                continue;
+            }
+            Integer old = map.get(path);
+            map.put(path, old == null ? flags : old | flags);
+        }
+    }
+
+    private static boolean isBelow(String path, Collection<String> prefixes) {
+        for (String prefix : prefixes) {
+            if (prefix.length() == 0 || path.equals(prefix) || path.startsWith(prefix + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
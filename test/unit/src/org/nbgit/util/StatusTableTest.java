@@ -0,0 +1,119 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2009 Jonas Fonseca <fonseca@diku.dk>
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common
+ * Development and Distribution License("CDDL") (collectively, the
+ * "License"). You may not use this file except in compliance with the
+ * License. You can obtain a copy of the License at
+ * http://www.netbeans.org/cddl-gplv2.html. See the License for the
+ * specific language governing permissions and limitations under the
+ * License.  When distributing the software, include this License Header
+ * Notice in each file.
+ *
+ * This particular file is subject to the "Classpath" exception as provided
+ * by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code. If applicable, add the following below the
+ * License Header, with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL
+ * or only the GPL Version 2, indicate your decision by adding
+ * "[Contributor] elects to include this software in this distribution
+ * under the [CDDL or GPL Version 2] license." If you do not indicate a
+ * single choice of license, a recipient has the option to distribute
+ * your version of this file under either the CDDL, the GPL Version 2 or
+ * to extend the choice of license to its licensees as provided above.
+ * However, if you add GPL Version 2 code and therefore, elected the GPL
+ * Version 2 license, then the option applies only if the new code is
+ * made subject to such option by the copyright holder.
+ */
+package org.nbgit.util;
+
+import junit.framework.TestCase;
+import org.nbgit.StatusInfo;
+
+public class StatusTableTest extends TestCase {
+
+    public void testLookup() {
+        StatusTable table = new StatusTable.Builder().
+                add("a.txt", StatusTable.ADDED).
+                add("a/b", StatusTable.MODIFIED).
+                add("a/c", StatusTable.UPTODATE).
+                add("b", StatusTable.UNTRACKED).
+                build();
+        assertEquals(4, table.size());
+        assertEquals(StatusTable.ADDED, table.getFlags("a.txt"));
+        assertEquals(StatusTable.MODIFIED, table.getFlags("a/b"));
+        assertEquals(StatusTable.UPTODATE, table.getFlags("a/c"));
+        assertEquals(StatusTable.UNTRACKED, table.getFlags("b"));
+        assertEquals(0, table.getFlags("a"));
+        assertEquals(0, table.getFlags("c"));
+        assertEquals(-1, table.indexOf(""));
+    }
+
+    public void testUnsortedInput() {
+        StatusTable table = new StatusTable.Builder().
+                add("z", StatusTable.UNTRACKED).
+                add("m", StatusTable.CHANGED).
+                add("a", StatusTable.ADDED).
+                add("m", StatusTable.MISSING).
+                build();
+        assertEquals(3, table.size());
+        assertEquals("a", table.getPath(0));
+        assertEquals("m", table.getPath(1));
+        assertEquals("z", table.getPath(2));
+        assertEquals(StatusTable.CHANGED | StatusTable.MISSING, table.getFlags("m"));
+    }
+
+    public void testGrowth() {
+        StatusTable.Builder builder = new StatusTable.Builder();
+        for (int i = 0; i < 1000; i++) {
+            builder.add(String.format("dir/%04d", i), StatusTable.UPTODATE);
+        }
+        StatusTable table = builder.build();
+        assertEquals(1000, table.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, table.indexOf(String.format("dir/%04d", i)));
+        }
+    }
+
+    public void testToStatus() {
+        assertEquals(StatusInfo.STATUS_VERSIONED_MODIFIEDLOCALLY,
+                StatusTable.toStatus(StatusTable.ADDED | StatusTable.MODIFIED));
+        assertEquals(StatusInfo.STATUS_VERSIONED_MODIFIEDLOCALLY,
+                StatusTable.toStatus(StatusTable.CHANGED | StatusTable.MISSING));
+        assertEquals(StatusInfo.STATUS_VERSIONED_DELETEDLOCALLY,
+                StatusTable.toStatus(StatusTable.ADDED | StatusTable.MISSING));
+        assertEquals(StatusInfo.STATUS_VERSIONED_REMOVEDLOCALLY,
+                StatusTable.toStatus(StatusTable.REMOVED));
+        assertEquals(StatusInfo.STATUS_VERSIONED_ADDEDLOCALLY,
+                StatusTable.toStatus(StatusTable.ADDED));
+        assertEquals(StatusInfo.STATUS_NOTVERSIONED_NEWLOCALLY,
+                StatusTable.toStatus(StatusTable.UNTRACKED));
+        assertEquals(StatusInfo.STATUS_VERSIONED_UPTODATE,
+                StatusTable.toStatus(StatusTable.UPTODATE));
+        assertEquals(StatusInfo.STATUS_UNKNOWN, StatusTable.toStatus(0));
+    }
+
+    public void testToStatusCombinedFlags() {
+        assertEquals(StatusInfo.STATUS_VERSIONED_MODIFIEDLOCALLY,
+                StatusTable.toStatus(StatusTable.ADDED | StatusTable.CHANGED));
+        assertEquals(StatusInfo.STATUS_VERSIONED_MODIFIEDLOCALLY,
+                StatusTable.toStatus(StatusTable.REMOVED | StatusTable.MODIFIED));
+        assertEquals(StatusInfo.STATUS_VERSIONED_DELETEDLOCALLY,
+                StatusTable.toStatus(StatusTable.REMOVED | StatusTable.MISSING));
+        assertEquals(StatusInfo.STATUS_VERSIONED_REMOVEDLOCALLY,
+                StatusTable.toStatus(StatusTable.ADDED | StatusTable.REMOVED));
+        assertEquals(StatusInfo.STATUS_VERSIONED_REMOVEDLOCALLY,
+                StatusTable.toStatus(StatusTable.REMOVED | StatusTable.UNTRACKED));
+        assertEquals(StatusInfo.STATUS_VERSIONED_ADDEDLOCALLY,
+                StatusTable.toStatus(StatusTable.ADDED | StatusTable.UPTODATE));
+    }
+
+}
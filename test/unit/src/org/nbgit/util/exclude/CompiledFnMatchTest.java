@@ -0,0 +1,102 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2009 Jonas Fonseca <fonseca@diku.dk>
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common
+ * Development and Distribution License("CDDL") (collectively, the
+ * "License"). You may not use this file except in compliance with the
+ * License. You can obtain a copy of the License at
+ * http://www.netbeans.org/cddl-gplv2.html. See the License for the
+ * specific language governing permissions and limitations under the
+ * License.  When distributing the software, include this License Header
+ * Notice in each file.
+ *
+ * This particular file is subject to the "Classpath" exception as provided
+ * by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code. If applicable, add the following below the
+ * License Header, with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL
+ * or only the GPL Version 2, indicate your decision by adding
+ * "[Contributor] elects to include this software in this distribution
+ * under the [CDDL or GPL Version 2] license." If you do not indicate a
+ * single choice of license, a recipient has the option to distribute
+ * your version of this file under either the CDDL, the GPL Version 2 or
+ * to extend the choice of license to its licensees as provided above.
+ * However, if you add GPL Version 2 code and therefore, elected the GPL
+ * Version 2 license, then the option applies only if the new code is
+ * made subject to such option by the copyright holder.
+ */
+package org.nbgit.util.exclude;
+
+import java.util.EnumSet;
+import junit.framework.TestCase;
+
+public class CompiledFnMatchTest extends TestCase {
+
+    public void testPathName() {
+        EnumSet<FnMatch.Flag> flags = EnumSet.of(FnMatch.Flag.PATHNAME);
+        assertMatches("*/target", "path/target", flags);
+        assertNotMatches("*/target", "path/to/target", flags);
+        assertMatches("*/*/target", "path/to/target", flags);
+        assertNotMatches("*.java", "path/File.java", flags);
+        assertNotMatches("path?to", "path/to", flags);
+        assertNotMatches("path[/]to", "path/to", flags);
+        assertMatches("path/*", "path/File.java", flags);
+        assertNotMatches("path/*", "path/to/File.java", flags);
+    }
+
+    public void testPeriod() {
+        EnumSet<FnMatch.Flag> flags = EnumSet.of(FnMatch.Flag.PERIOD);
+        assertNotMatches("*", ".gitignore", flags);
+        assertNotMatches("?gitignore", ".gitignore", flags);
+        assertMatches(".*", ".gitignore", flags);
+        assertMatches("a*", "a.b", flags);
+        flags.add(FnMatch.Flag.PATHNAME);
+        assertNotMatches("dir/*", "dir/.hidden", flags);
+        assertMatches("dir/.*", "dir/.hidden", flags);
+    }
+
+    public void testLeadingDir() {
+        EnumSet<FnMatch.Flag> flags = EnumSet.of(FnMatch.Flag.LEADING_DIR);
+        assertMatches("path", "path/to/File.java", flags);
+        assertNotMatches("path", "pathname", flags);
+        flags.add(FnMatch.Flag.PATHNAME);
+        assertMatches("p*", "path/to/File.java", flags);
+    }
+
+    public void testCaseFold() {
+        EnumSet<FnMatch.Flag> flags = EnumSet.of(FnMatch.Flag.CASEFOLD);
+        assertMatches("*.JAVA", "File.java", flags);
+        assertMatches("file.[A-C]d", "FILE.bd", flags);
+        assertNotMatches("*.JAVA", "File.javac", flags);
+    }
+
+    public void testNoEscape() {
+        EnumSet<FnMatch.Flag> flags = EnumSet.of(FnMatch.Flag.NOESCAPE);
+        assertMatches("\\*", "\\abc", flags);
+        assertNotMatches("\\*", "*", flags);
+    }
+
+    public void testManyStars() {
+        EnumSet<FnMatch.Flag> flags = EnumSet.noneOf(FnMatch.Flag.class);
+        assertNotMatches("*a*a*a*a*b", "aaaaaaaaaaaaaaaaaaaa", flags);
+        assertMatches("*a*a*a*a*b", "aaaaaaaaaaaaaaaaaaab", flags);
+    }
+
+    private void assertMatches(String pattern, String input, EnumSet<FnMatch.Flag> flags) {
+        assertTrue(FnMatch.fnmatch(pattern, input, flags));
+        assertTrue(CompiledFnMatch.compile(pattern, CompiledFnMatch.toMask(flags)).matches(input));
+    }
+
+    private void assertNotMatches(String pattern, String input, EnumSet<FnMatch.Flag> flags) {
+        assertFalse(FnMatch.fnmatch(pattern, input, flags));
+        assertFalse(CompiledFnMatch.compile(pattern, CompiledFnMatch.toMask(flags)).matches(input));
+    }
+}
@@ -35,6 +35,7 @@
  */
 package org.nbgit.util.exclude;
 
+import java.util.Collections;
 import junit.framework.TestCase;
 
 public class FnMatchTest extends TestCase {
@@ -111,9 +112,18 @@ public void testCombinationsNoFlags() {
 
     private void assertMatches(String pattern, String input) {
         assertTrue(FnMatch.fnmatch(pattern, input));
+        assertTrue(CompiledFnMatch.compile(pattern, 0).matches(input));
+        assertTrue(automatonMatches(pattern, input));
     }
 
     private void assertNotMatches(String pattern, String input) {
         assertFalse(FnMatch.fnmatch(pattern, input));
+        assertFalse(CompiledFnMatch.compile(pattern, 0).matches(input));
+        assertFalse(automatonMatches(pattern, input));
+    }
+
+    private boolean automatonMatches(String pattern, String input) {
+        GlobAutomaton automaton = GlobAutomaton.compile(Collections.singletonList(pattern), false);
+        return automaton.match(input, 0, null) == 0;
     }
 }
@@ -146,11 +146,13 @@ private TestBuilder pattern(String pattern) {
     private static class TestBuilder {
 
         private final PathPattern pattern;
+        private final String patternString;
         private String relativePatternDir = "";
 
         private TestBuilder(String pattern) {
             assertNotSame('!', pattern.charAt(0));
             this.pattern = PathPattern.create(pattern);
+            this.patternString = pattern;
         }
 
         private TestBuilder from(String excludeOrigin) {
@@ -189,6 +191,11 @@ private TestBuilder match(boolean expected, String filePath, boolean isDir) {
             if (expected != pattern.matches(filePath, isDir, relativePatternDir)) {
                 fail(pattern + " does not match: " + filePath);
             }
+            PathPatternList list = new PathPatternList(relativePatternDir);
+            list.add(patternString);
+            if (expected != (list.findPattern(filePath, isDir) != null)) {
+                fail(list + " does not match: " + filePath);
+            }
             return this;
         }
     }